@@ -10,4 +10,18 @@ declare global {
 }
 
 export { MLKitBarcodeScanner } from './BarcodeScanner.plugin';
-export { IBarcodeFormats, IError, IOptions, IResult } from './Interface';
+export {
+  IBarcodeFormats,
+  IBoundingBox,
+  IEmbeddedOptions,
+  IError,
+  IImageBatchOptions,
+  IImageOptions,
+  IImageResult,
+  ILatencyStats,
+  IOptions,
+  IRegion,
+  IResolution,
+  IResult,
+  IScanStats,
+} from './Interface';
@@ -2,13 +2,21 @@ import { barcodeFormat, barcodeType } from './Detector';
 import {
   IBarcodeFormats,
   IConfig,
+  IEmbeddedOptions,
   IError,
+  IImageBatchOptions,
+  IImageOptions,
+  IImageResult,
   IOptions,
+  IRegion,
   IResult,
+  IScanStats,
 } from './Interface';
-import { defaultOptions } from './Options';
+import { continuousDuplicateTtl, defaultOptions } from './Options';
 import { keyByValue } from './util/Object';
 
+type TResultData = [string, number, number, number[]?];
+
 export class MLKitBarcodeScanner {
   private getBarcodeFormat(format: number): string {
     return keyByValue(barcodeFormat, format);
@@ -18,6 +26,19 @@ export class MLKitBarcodeScanner {
     return keyByValue(barcodeType, type);
   }
 
+  private getResult([text, format, type, box]: TResultData): IResult {
+    const result: IResult = {
+      text,
+      format: this.getBarcodeFormat(format),
+      type: this.getBarcodeType(type),
+    };
+    if (box) {
+      const [left, top, right, bottom] = box;
+      result.boundingBox = { left, top, right, bottom };
+    }
+    return result;
+  }
+
   private getBarcodeFormatFlags(barcodeFormats?: IBarcodeFormats): number {
     let barcodeFormatFlag = 0;
     let key: keyof typeof barcodeFormat;
@@ -36,35 +57,320 @@ export class MLKitBarcodeScanner {
     return barcodeFormatFlag;
   }
 
-  scan(
-    userOptions: IOptions,
-    success: (result: IResult) => unknown,
-    failure: (error: IError) => unknown,
-  ): void {
+  private getDuplicateTtlByFormat(
+    ttls?: Partial<Record<keyof IBarcodeFormats, number>>,
+  ): Record<number, number> {
+    const ttlByFormat: Record<number, number> = {};
+    let key: keyof typeof barcodeFormat;
+    const formatTtls = ttls || defaultOptions.duplicateTtlByFormat;
+
+    // eslint-disable-next-line no-restricted-syntax
+    for (key in formatTtls) {
+      const ttl = formatTtls[key];
+      if (barcodeFormat.hasOwnProperty(key) && ttl !== undefined) {
+        ttlByFormat[barcodeFormat[key]] = ttl;
+      }
+    }
+    return ttlByFormat;
+  }
+
+  private getConfig(userOptions: IOptions, continuous = false): IConfig {
     const barcodeFormats =
       userOptions?.barcodeFormats || defaultOptions.barcodeFormats;
-    const config: IConfig = {
+    return {
       ...defaultOptions,
       ...userOptions,
       barcodeFormats: this.getBarcodeFormatFlags(barcodeFormats),
+      multiResult: false,
+      duplicateTtl:
+        userOptions?.duplicateTtl ??
+        (continuous ? continuousDuplicateTtl : defaultOptions.duplicateTtl),
+      duplicateTtlByFormat: this.getDuplicateTtlByFormat(
+        userOptions?.duplicateTtlByFormat,
+      ),
     };
+  }
+
+  scan(
+    userOptions: IOptions,
+    success: (result: IResult) => unknown,
+    failure: (error: IError) => unknown,
+  ): void {
+    this.sendScanRequest(
+      'startScan',
+      this.getConfig(userOptions),
+      (data) => success(this.getResult(data[0])),
+      failure,
+    );
+  }
+
+  /**
+   * Returns every barcode found in the frame, together with their bounding
+   * boxes. With `minResults` the scanner stays open until that many distinct
+   * barcodes have been seen, collected across frames. (Android only)
+   */
+  scanMultiple(
+    userOptions: IOptions,
+    success: (results: IResult[]) => unknown,
+    failure: (error: IError) => unknown,
+  ): void {
+    this.sendScanRequest(
+      'startScan',
+      { ...this.getConfig(userOptions), multiResult: true },
+      (data) => success(data.map((result) => this.getResult(result))),
+      failure,
+    );
+  }
+
+  /**
+   * Keeps the scanner open and calls `success` for every barcode that is read,
+   * until `stopScan` is called or the user closes the scanner. Ending the scan
+   * calls `failure` with `cancelled: true`. (Android only)
+   */
+  startContinuousScan(
+    userOptions: IOptions,
+    success: (result: IResult) => unknown,
+    failure: (error: IError) => unknown,
+  ): void {
+    this.sendScanRequest(
+      'startContinuousScan',
+      this.getConfig(userOptions, true),
+      (data) => data.forEach((result) => success(this.getResult(result))),
+      failure,
+    );
+  }
+
+  /**
+   * Scans inside the app instead of opening the scanner screen. The camera
+   * preview covers `region` (in CSS pixels, the whole WebView by default),
+   * above the WebView or, with `behindWebView`, behind a transparent WebView.
+   * Results are delivered like the ones of `startContinuousScan`.
+   * (Android only)
+   */
+  startEmbeddedScan(
+    userOptions: IEmbeddedOptions,
+    success: (result: IResult) => unknown,
+    failure: (error: IError) => unknown,
+  ): void {
+    this.sendScanRequest(
+      'startEmbeddedScan',
+      {
+        ...this.getConfig(userOptions, true),
+        region: userOptions?.region,
+        behindWebView: userOptions?.behindWebView || false,
+      },
+      (data) => data.forEach((result) => success(this.getResult(result))),
+      failure,
+    );
+  }
+
+  /**
+   * Shows or hides the preview of the embedded scan. The camera is paused while
+   * it is hidden. (Android only)
+   */
+  setEmbeddedScanVisible(
+    visible: boolean,
+    success?: () => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    this.sendControlRequest(
+      'setEmbeddedScanVisible',
+      [visible],
+      success,
+      failure,
+    );
+  }
+
+  /**
+   * Moves and resizes the preview of the embedded scan. (Android only)
+   */
+  setEmbeddedScanRegion(
+    region: IRegion | null,
+    success?: () => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    this.sendControlRequest(
+      'setEmbeddedScanRegion',
+      [region],
+      success,
+      failure,
+    );
+  }
+
+  /**
+   * Stops the embedded scan and removes its preview. (Android only)
+   */
+  stopEmbeddedScan(
+    success?: () => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    this.sendControlRequest('stopEmbeddedScan', [], success, failure);
+  }
+
+  /**
+   * Resolves the camera and loads the barcode model ahead of the first scan, so
+   * the scanner opens faster. `success` receives the time each step took in
+   * milliseconds, together with the last cold and warm time-to-first-frame.
+   * (Android only)
+   */
+  prepare(
+    userOptions?: IOptions,
+    success?: (timings: Record<string, unknown>) => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    cordova.exec(
+      (timings: Record<string, unknown>) => success?.(timings),
+      (err: string) => failure?.(err),
+      'cordova-plugin-mlkit-barcode-scanner',
+      'prepare',
+      [this.getConfig(userOptions || {})],
+    );
+  }
 
-    this.sendScanRequest(config, success, failure);
+  /**
+   * Reads all barcodes in an image, given as file path or as `file:` or
+   * `content:` URI. The image is decoded at the lowest resolution at which a
+   * barcode covering `targetBarcodeSize` of its longer side is still readable.
+   * (Android only)
+   */
+  scanImage(
+    image: string,
+    userOptions: IImageOptions,
+    success: (results: IResult[]) => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    cordova.exec(
+      (data: TResultData[]) =>
+        success(data.map((result) => this.getResult(result))),
+      (err: string) => failure?.(err),
+      'cordova-plugin-mlkit-barcode-scanner',
+      'scanImage',
+      [
+        image,
+        {
+          barcodeFormats: this.getBarcodeFormatFlags(
+            userOptions?.barcodeFormats,
+          ),
+          targetBarcodeSize: userOptions?.targetBarcodeSize ?? 0.2,
+        },
+      ],
+    );
+  }
+
+  /**
+   * Reads the barcodes of many images in parallel, with at most
+   * `maxDecodedMemory` bytes of decoded images at once (a quarter of the app's
+   * heap by default). `progress` is called for every image as soon as it is
+   * done, `done` once all images are done or the batch was cancelled with
+   * `cancelImageScan`. (Android only)
+   */
+  scanImages(
+    images: string[],
+    userOptions: IImageBatchOptions,
+    progress: (result: IImageResult) => unknown,
+    done: (cancelled: boolean) => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    cordova.exec(
+      (
+        message:
+          | { finished: true; cancelled: boolean }
+          | (Omit<IImageResult, 'results'> & { results?: TResultData[] }),
+      ) => {
+        if ('finished' in message) {
+          done(message.cancelled);
+          return;
+        }
+        const { results, ...imageResult } = message;
+        progress({
+          ...imageResult,
+          results: results?.map((result) => this.getResult(result)),
+        });
+      },
+      (err: string) => failure?.(err),
+      'cordova-plugin-mlkit-barcode-scanner',
+      'scanImages',
+      [
+        images,
+        {
+          barcodeFormats: this.getBarcodeFormatFlags(
+            userOptions?.barcodeFormats,
+          ),
+          targetBarcodeSize: userOptions?.targetBarcodeSize ?? 0.2,
+          maxDecodedMemory: userOptions?.maxDecodedMemory ?? 0,
+        },
+      ],
+    );
+  }
+
+  /**
+   * Cancels the batch started by `scanImages`. (Android only)
+   */
+  cancelImageScan(
+    success?: () => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    this.sendControlRequest('cancelImageScan', [], success, failure);
+  }
+
+  /**
+   * Returns latency percentiles of every stage of the frame analysis and frame
+   * counters, collected since the app started or the last reset, together with
+   * the state of the running scan. (Android only)
+   */
+  getScanStats(
+    reset: boolean,
+    success: (stats: IScanStats) => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    cordova.exec(
+      (stats: IScanStats) => success(stats),
+      (err: string) => failure?.(err),
+      'cordova-plugin-mlkit-barcode-scanner',
+      'getScanStats',
+      [reset],
+    );
+  }
+
+  /**
+   * Closes the scanner opened by `startContinuousScan`. (Android only)
+   */
+  stopScan(
+    success?: () => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    this.sendControlRequest('stopScan', [], success, failure);
+  }
+
+  private sendControlRequest(
+    action: string,
+    args: unknown[],
+    success?: () => unknown,
+    failure?: (error: string) => unknown,
+  ): void {
+    cordova.exec(
+      () => success?.(),
+      (err: string) => failure?.(err),
+      'cordova-plugin-mlkit-barcode-scanner',
+      action,
+      args,
+    );
   }
 
   private sendScanRequest(
-    config: IConfig,
-    successCallback: (result: IResult) => unknown,
+    action: string,
+    config: IConfig & Record<string, unknown>,
+    successCallback: (results: TResultData[]) => unknown,
     failureCallback: (error: IError) => unknown,
   ): void {
     cordova.exec(
-      (data: [string, number, number]) => {
-        const [text, format, type] = data;
-        successCallback({
-          text,
-          format: this.getBarcodeFormat(format),
-          type: this.getBarcodeType(type),
-        });
+      (data: TResultData | TResultData[]) => {
+        // Batched and multi results arrive as an array of single results.
+        successCallback(
+          Array.isArray(data[0])
+            ? (data as TResultData[])
+            : [data as TResultData],
+        );
       },
       (err: (string | null)[]) => {
         switch (err[0]) {
@@ -75,6 +381,12 @@ export class MLKitBarcodeScanner {
               message: 'The scan was cancelled.',
             });
             break;
+          case 'SCAN_STOPPED':
+            failureCallback({
+              cancelled: true,
+              message: 'The scan was stopped.',
+            });
+            break;
           case 'SCANNER_OPEN':
             failureCallback({
               cancelled: false,
@@ -90,7 +402,7 @@ export class MLKitBarcodeScanner {
         }
       },
       'cordova-plugin-mlkit-barcode-scanner',
-      'startScan',
+      action,
       [config],
     );
   }
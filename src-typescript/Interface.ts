@@ -14,12 +14,40 @@ export interface IBarcodeFormats {
   UPCE: boolean;
 }
 
+export type AnalysisMode = 'yuv' | 'bitmap';
+
+export interface IResolution {
+  width: number;
+  height: number;
+}
+
 export interface IOptions {
   barcodeFormats?: IBarcodeFormats;
   beepOnSuccess?: boolean;
   vibrateOnSuccess?: boolean;
   detectorSize?: number;
+  detectorWidth?: number;
+  detectorHeight?: number;
   rotateCamera?: boolean;
+  analysisMode?: AnalysisMode;
+  adaptiveScheduling?: boolean;
+  sharpnessGate?: boolean;
+  queueDepth?: number;
+  pyramidScales?: number[];
+  pyramidMisses?: number;
+  analysisResolution?: IResolution;
+  showBarcodes?: boolean;
+  autoTorch?: boolean;
+  regionMetering?: boolean;
+  meteringMisses?: number;
+  tracking?: boolean;
+  trackingMisses?: number;
+  duplicateTtl?: number;
+  duplicateTtlByFormat?: Partial<Record<keyof IBarcodeFormats, number>>;
+  duplicateCacheSize?: number;
+  batchWindow?: number;
+  batchSize?: number;
+  minResults?: number;
 }
 
 export interface IConfig {
@@ -27,13 +55,104 @@ export interface IConfig {
   beepOnSuccess: boolean;
   vibrateOnSuccess: boolean;
   detectorSize: number;
+  detectorWidth: number;
+  detectorHeight: number;
   rotateCamera: boolean;
+  analysisMode: AnalysisMode;
+  adaptiveScheduling: boolean;
+  sharpnessGate: boolean;
+  queueDepth: number;
+  pyramidScales: number[];
+  pyramidMisses: number;
+  analysisResolution: IResolution;
+  showBarcodes: boolean;
+  autoTorch: boolean;
+  regionMetering: boolean;
+  meteringMisses: number;
+  tracking: boolean;
+  trackingMisses: number;
+  duplicateTtl: number;
+  duplicateTtlByFormat: Record<number, number>;
+  duplicateCacheSize: number;
+  batchWindow: number;
+  batchSize: number;
+  minResults: number;
+  multiResult: boolean;
+}
+
+export interface IRegion {
+  x: number;
+  y: number;
+  width: number;
+  height: number;
+}
+
+export interface IEmbeddedOptions extends IOptions {
+  region?: IRegion;
+  behindWebView?: boolean;
+}
+
+export interface IImageOptions {
+  barcodeFormats?: IBarcodeFormats;
+  targetBarcodeSize?: number;
+}
+
+export interface IImageBatchOptions extends IImageOptions {
+  maxDecodedMemory?: number;
+}
+
+export interface IImageResult {
+  index: number;
+  image: string;
+  results?: IResult[];
+  error?: string;
+}
+
+export interface IBoundingBox {
+  left: number;
+  top: number;
+  right: number;
+  bottom: number;
 }
 
 export interface IResult {
   text: string;
   format: string;
   type: string;
+  boundingBox?: IBoundingBox;
+}
+
+/** Durations in milliseconds. */
+export interface ILatencyStats {
+  count: number;
+  mean: number;
+  p50: number;
+  p95: number;
+  p99: number;
+  max: number;
+}
+
+export interface IScanStats {
+  latencies: Record<
+    | 'planeCopy'
+    | 'jpegEncode'
+    | 'jpegDecode'
+    | 'sharpness'
+    | 'conversion'
+    | 'queueWait'
+    | 'detection'
+    | 'timeToFirstDecode'
+    | 'timeToFirstDecodeMetered'
+    | 'timeToFirstDecodeUnmetered',
+    ILatencyStats
+  >;
+  framesAnalyzed: number;
+  framesDropped: number;
+  framesBlurry: number;
+  pipeline?: Record<string, number>;
+  framePool?: Record<string, number>;
+  duplicateCache: { hits: number; misses: number };
+  timeToFirstFrame: { cold: number; warm: number };
 }
 
 export interface IError {
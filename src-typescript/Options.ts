@@ -19,5 +19,32 @@ export const defaultOptions: Required<IOptions> = Object.freeze({
   beepOnSuccess: false,
   vibrateOnSuccess: false,
   detectorSize: 0.6,
+  detectorWidth: 0,
+  detectorHeight: 0,
   rotateCamera: false,
+  analysisMode: 'yuv',
+  adaptiveScheduling: true,
+  sharpnessGate: true,
+  queueDepth: 1,
+  pyramidScales: [],
+  pyramidMisses: 3,
+  analysisResolution: { width: 0, height: 0 },
+  showBarcodes: false,
+  autoTorch: false,
+  regionMetering: true,
+  meteringMisses: 30,
+  tracking: false,
+  trackingMisses: 5,
+  duplicateTtl: 0,
+  duplicateTtlByFormat: {},
+  duplicateCacheSize: 64,
+  batchWindow: 0,
+  batchSize: 0,
+  minResults: 1,
 });
+
+/**
+ * `duplicateTtl` of continuous and embedded scans that do not set one, so a
+ * barcode in front of the camera is only reported once.
+ */
+export const continuousDuplicateTtl = 2000;
@@ -0,0 +1,628 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.annotation.SuppressLint;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.ImageProxy;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.barcode.Barcode;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.common.InputImage;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.AutoTorch;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.BitmapUtils;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.FrameBufferPool;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.FrameMetadata;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.FrameScheduler;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.ScanStats;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.SharpnessGate;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.YuvConverter;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.YuvPlane;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crops the detector region out of every camera frame and hands it to ML Kit.
+ *
+ * <p>
+ * In {@link #MODE_YUV} the region is copied straight out of the YUV planes and
+ * passed to ML Kit as NV21. In {@link #MODE_BITMAP} the region is converted to a
+ * bitmap first, which is slower but kept as a fallback for devices with broken
+ * YUV output. Either way only the detector region is ever copied or converted,
+ * and its pixels are never rotated: the rotation of the frame is handed to ML
+ * Kit as metadata and applied exactly once there.
+ *
+ * <p>
+ * Analysis runs in two stages. The first one, on the CameraX analyzer thread,
+ * copies the detector region out of the frame and closes it right away, so
+ * CameraX can deliver the next frame while ML Kit is still busy. The second
+ * one runs ML Kit on a detector thread of its own. Up to 'queueDepth' converted
+ * frames wait for the detector; while the queue is full, new frames are closed
+ * without conversion.
+ *
+ * <p>
+ * All frame sized buffers and bitmaps come from a {@link FrameBufferPool} owned
+ * by the analyzer and go back to it once detection is done.
+ *
+ * <p>
+ * With a resolution pyramid set, {@link #MODE_YUV} first runs the detector on a
+ * downscaled copy of the luma of the region and only moves on to finer scales
+ * after a number of frames without a barcode. Large and close barcodes are read
+ * at the coarse scales at a fraction of the cost, small and far ones still get
+ * the full resolution.
+ *
+ * <p>
+ * With tracking enabled, a {@link RegionTracker} predicts from the barcodes of
+ * the last frames where they will be, and only a window around that position is
+ * cropped instead of the whole detector region.
+ *
+ * <p>
+ * With a {@link FrameScheduler} set, frames it rejects are closed right away
+ * without any conversion, and so are frames a {@link SharpnessGate} finds too
+ * blurry to be read.
+ */
+public class BarcodeAnalyzer implements ImageAnalysis.Analyzer {
+
+  private static final String TAG = "MLKitBarcodeScanner";
+
+  public static final String MODE_YUV = "yuv";
+  public static final String MODE_BITMAP = "bitmap";
+
+  /** Receives the barcodes found in a frame. Called on the main thread. */
+  public interface Listener {
+    /**
+     * @param detectorRect the region of the upright frame the barcodes were
+     *                     detected in. Their bounding boxes are relative to it.
+     * @param scale        the factor the region was downscaled by, their bounding
+     *                     boxes have to be multiplied by it.
+     */
+    void onBarcodesDetected(List<Barcode> barcodes, Rect detectorRect, int scale);
+  }
+
+  private final BarcodeScanner scanner;
+  private final Listener listener;
+  private final boolean useBitmap;
+  private final DetectorRegion region;
+  private final boolean rotateCamera;
+  private final FrameBufferPool pool = new FrameBufferPool();
+
+  private final int queueDepth;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final ExecutorService detector = Executors.newSingleThreadExecutor();
+
+  private Runnable firstFrameCallback;
+  private FrameScheduler scheduler;
+  private RegionTracker tracker;
+  private BarcodeOverlay overlay;
+  private AutoTorch autoTorch;
+  private SharpnessGate sharpnessGate;
+  private Runnable missCallback;
+  private int missCallbackMisses;
+  // Frames in a row without a barcode, updated by the detector thread.
+  private int consecutiveMisses;
+
+  // Downscale factors from coarse to fine, the current one and the frames missed
+  // at it. Updated by the detector thread.
+  private int[] pyramidScales = { 1 };
+  private int pyramidMisses;
+  private volatile int pyramidLevel;
+  private int missesAtLevel;
+
+  // Reused for every frame, only touched on the analyzer thread.
+  private final ProxyPlane[] planes = { new ProxyPlane(), new ProxyPlane(), new ProxyPlane() };
+  private final FrameMetadata frameMetadata = new FrameMetadata.Builder().build();
+  private final Rect cropRect = new Rect();
+  private final int[] sensorRect = new int[4];
+  private final int[] downscaledSize = new int[3];
+
+  // Frames converted but not yet through detection, and pipeline counters.
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong queueFullDrops = new AtomicLong();
+  private final AtomicLong conversionBusy = new AtomicLong();
+  private final AtomicLong detectionBusy = new AtomicLong();
+  private volatile int maxInFlight;
+  private volatile long firstFrameTime;
+
+  /**
+   * @param scanner    a client of {@link CameraResources#acquireScanner}, handed
+   *                   back by {@link #release()}.
+   * @param queueDepth number of converted frames that may wait while the
+   *                   detector is busy, at least 1.
+   */
+  public BarcodeAnalyzer(BarcodeScanner scanner, String analysisMode, DetectorRegion region, boolean rotateCamera,
+      int queueDepth, Listener listener) {
+    this.scanner = scanner;
+    this.listener = listener;
+    this.useBitmap = MODE_BITMAP.equals(analysisMode);
+    this.region = region;
+    this.rotateCamera = rotateCamera;
+    this.queueDepth = Math.max(1, queueDepth);
+  }
+
+  /** Sets a callback that runs on the analyzer thread when the first frame arrives. */
+  public void setFirstFrameCallback(Runnable callback) {
+    firstFrameCallback = callback;
+  }
+
+  /** Sets the scheduler deciding which frames are analyzed, null to analyze all. */
+  public void setFrameScheduler(FrameScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /** Sets the overlay the barcodes of every frame are shown on, null for none. */
+  public void setOverlay(BarcodeOverlay overlay) {
+    this.overlay = overlay;
+  }
+
+  /**
+   * Sets the auto torch that measures the brightness of the frames, null for
+   * none. It sees every frame, also the ones the scheduler drops.
+   */
+  public void setAutoTorch(AutoTorch autoTorch) {
+    this.autoTorch = autoTorch;
+  }
+
+  /** Sets the gate that skips blurry frames before conversion, null to analyze all. */
+  public void setSharpnessGate(SharpnessGate sharpnessGate) {
+    this.sharpnessGate = sharpnessGate;
+  }
+
+  /**
+   * Sets a callback that runs on the main thread whenever 'misses' frames in a
+   * row had no barcode, e.g. to refocus.
+   */
+  public void setMissCallback(int misses, Runnable callback) {
+    missCallbackMisses = Math.max(1, misses);
+    missCallback = callback;
+  }
+
+  /**
+   * Enables tracking: after a hit, the following frames only crop a window
+   * around the predicted position of the barcodes.
+   *
+   * @param misses frames without a barcode after which the whole detector
+   *               region is scanned again.
+   */
+  public void setTracking(int misses) {
+    tracker = new RegionTracker(misses);
+  }
+
+  /**
+   * Enables the resolution pyramid.
+   *
+   * @param scales downscale factors, e.g. {4, 2, 1}. Detection starts at the
+   *               largest one.
+   * @param misses frames without a barcode after which the next finer scale is
+   *               used. After that many misses at the finest scale, detection
+   *               starts over at the coarsest one, and after a barcode was read
+   *               as well.
+   */
+  public void setPyramid(int[] scales, int misses) {
+    int count = 0;
+    int[] valid = new int[scales.length];
+    for (int scale : scales) {
+      if (scale >= 1) {
+        valid[count++] = scale;
+      }
+    }
+    Arrays.sort(valid, 0, count);
+
+    int[] coarseToFine = new int[count];
+    for (int i = 0; i < count; i++) {
+      coarseToFine[i] = valid[count - 1 - i];
+    }
+    pyramidScales = count > 0 ? coarseToFine : new int[] { 1 };
+    pyramidMisses = Math.max(1, misses);
+    pyramidLevel = 0;
+  }
+
+  @SuppressLint("UnsafeExperimentalUsageError")
+  @Override
+  public void analyze(@NonNull ImageProxy image) {
+    if (firstFrameCallback != null) {
+      firstFrameCallback.run();
+      firstFrameCallback = null;
+    }
+
+    if (image.getImage() == null) {
+      image.close();
+      return;
+    }
+
+    long start = SystemClock.elapsedRealtimeNanos();
+    if (firstFrameTime == 0) {
+      firstFrameTime = start;
+    }
+    if (autoTorch != null) {
+      ImageProxy.PlaneProxy luma = image.getPlanes()[0];
+      autoTorch.update(start, luma.getBuffer(), luma.getRowStride(), luma.getPixelStride(), image.getWidth(),
+          image.getHeight());
+    }
+    if (scheduler != null) {
+      ImageProxy.PlaneProxy luma = image.getPlanes()[0];
+      if (!scheduler.shouldAnalyze(start, luma.getBuffer(), luma.getRowStride(), luma.getPixelStride(),
+          image.getWidth(), image.getHeight())) {
+        ScanStats.FRAMES_DROPPED.incrementAndGet();
+        image.close();
+        return;
+      }
+    }
+
+    // The detector and the queue in front of it are full, converting the frame
+    // would only waste time.
+    if (inFlight.get() > queueDepth) {
+      queueFullDrops.incrementAndGet();
+      ScanStats.FRAMES_DROPPED.incrementAndGet();
+      image.close();
+      return;
+    }
+
+    int rotation = getUprightRotation(image.getImageInfo().getRotationDegrees(), rotateCamera);
+    Rect detectorRect = getUprightDetectorRect(image, rotation);
+    // Read before the image is closed, its getters may fail afterwards.
+    int uprightWidth = rotation % 180 != 0 ? image.getHeight() : image.getWidth();
+    int uprightHeight = rotation % 180 != 0 ? image.getWidth() : image.getHeight();
+    long timestamp = image.getImageInfo().getTimestamp();
+    if (tracker != null) {
+      Rect window = tracker.predict(timestamp, detectorRect);
+      if (window != null) {
+        detectorRect = window;
+      }
+    }
+    FrameMetadata metadata = getFrameMetadata(image, rotation, detectorRect);
+    if (sharpnessGate != null && !isSharp(image, metadata.getCropRect())) {
+      ScanStats.FRAMES_BLURRY.incrementAndGet();
+      image.close();
+      return;
+    }
+
+    int scale = useBitmap ? 1 : pyramidScales[Math.min(pyramidLevel, pyramidScales.length - 1)];
+    Frame frame;
+    long conversionTime;
+    long conversionStart = ScanStats.begin("conversion");
+    try {
+      frame = useBitmap ? convertBitmap(image, metadata)
+          : scale > 1 ? convertDownscaled(image, metadata, scale) : convertYuv(image, metadata);
+    } finally {
+      // A frame left open would stop the camera from delivering the next ones.
+      image.close();
+      conversionTime = ScanStats.end(ScanStats.CONVERSION, conversionStart);
+    }
+    conversionBusy.addAndGet(conversionTime);
+    if (frame == null) {
+      return;
+    }
+
+    ScanStats.FRAMES_ANALYZED.incrementAndGet();
+    frame.detectorRect = detectorRect;
+    frame.scale = scale;
+    frame.timestamp = timestamp;
+    frame.uprightWidth = uprightWidth;
+    frame.uprightHeight = uprightHeight;
+    frame.conversionTime = conversionTime;
+    frame.queuedAt = SystemClock.elapsedRealtimeNanos();
+    int count = inFlight.incrementAndGet();
+    if (count > maxInFlight) {
+      maxInFlight = count;
+    }
+    try {
+      detector.execute(frame);
+    } catch (RejectedExecutionException e) {
+      // Released while the frame was converted.
+      inFlight.decrementAndGet();
+    }
+  }
+
+  /**
+   * Scores the sharpness of the luma of the region about to be converted.
+   */
+  private boolean isSharp(ImageProxy image, Rect crop) {
+    long start = ScanStats.begin("sharpness");
+    ImageProxy.PlaneProxy luma = image.getPlanes()[0];
+    boolean sharp = sharpnessGate.accept(luma.getBuffer(), luma.getRowStride(), luma.getPixelStride(), crop.left,
+        crop.top, crop.width(), crop.height());
+    ScanStats.end(ScanStats.SHARPNESS, start);
+    return sharp;
+  }
+
+  /**
+   * Copies the detector region out of the YUV planes and lets ML Kit apply the
+   * rotation.
+   */
+  private Frame convertYuv(ImageProxy image, FrameMetadata metadata) {
+    Rect crop = metadata.getCropRect();
+    int cropSize = crop.width() * crop.height();
+    byte[] nv21 = pool.acquireBuffer(cropSize + 2 * (cropSize / 4));
+    BitmapUtils.yuv420ThreePlanesToNV21(wrapPlanes(image), crop, nv21);
+
+    Frame frame = new Frame(InputImage.fromByteArray(nv21, crop.width(), crop.height(), metadata.getRotation(),
+        InputImage.IMAGE_FORMAT_NV21));
+    frame.buffer = nv21;
+    return frame;
+  }
+
+  /**
+   * Copies the luma of the detector region at 1 / 'scale' of its size.
+   */
+  private Frame convertDownscaled(ImageProxy image, FrameMetadata metadata, int scale) {
+    Rect crop = metadata.getCropRect();
+    int[] size = YuvConverter.getDownscaledSize(crop.width(), crop.height(), scale, downscaledSize);
+    if (size[0] == 0 || size[1] == 0) {
+      return convertYuv(image, metadata);
+    }
+
+    byte[] nv21 = pool.acquireBuffer(size[2]);
+    long start = ScanStats.begin("planeCopy");
+    try {
+      YuvConverter.toDownscaledNV21(wrapPlanes(image), crop.left, crop.top, crop.width(), crop.height(), scale,
+          nv21);
+    } finally {
+      ScanStats.end(ScanStats.PLANE_COPY, start);
+    }
+
+    Frame frame = new Frame(InputImage.fromByteArray(nv21, size[0], size[1], metadata.getRotation(),
+        InputImage.IMAGE_FORMAT_NV21));
+    frame.buffer = nv21;
+    return frame;
+  }
+
+  /**
+   * Converts the detector region to a bitmap.
+   */
+  private Frame convertBitmap(ImageProxy image, FrameMetadata metadata) {
+    Bitmap bitmap = BitmapUtils.getBitmap(wrapPlanes(image), metadata, pool);
+    if (bitmap == null) {
+      return null;
+    }
+
+    Frame frame = new Frame(InputImage.fromBitmap(bitmap, metadata.getRotation()));
+    frame.bitmap = bitmap;
+    return frame;
+  }
+
+  /**
+   * Runs ML Kit on a converted frame and returns its buffers to the pool. Runs on
+   * the detector thread.
+   */
+  private void detect(Frame frame) {
+    long start = ScanStats.begin("detection");
+    ScanStats.QUEUE_WAIT.record(start - frame.queuedAt);
+    try {
+      final List<Barcode> barcodes = Tasks.await(scanner.process(frame.image));
+      updatePyramid(barcodes.size() > 0);
+      countMisses(barcodes.size() > 0);
+      if (overlay != null) {
+        overlay.show(barcodes, frame.detectorRect, frame.scale, frame.uprightWidth, frame.uprightHeight);
+      }
+      if (tracker != null) {
+        tracker.update(barcodes, frame.detectorRect, frame.scale, frame.timestamp);
+      }
+      if (barcodes.size() > 0) {
+        final Rect detectorRect = frame.detectorRect;
+        final int scale = frame.scale;
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            listener.onBarcodesDetected(barcodes, detectorRect, scale);
+          }
+        });
+      }
+    } catch (ExecutionException e) {
+      // The frame could not be processed, wait for the next one.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      long detectionTime = ScanStats.end(ScanStats.DETECTION, start);
+      detectionBusy.addAndGet(detectionTime);
+      if (scheduler != null) {
+        scheduler.recordLatency(frame.conversionTime + detectionTime);
+      }
+      if (frame.buffer != null) {
+        pool.releaseBuffer(frame.buffer);
+      }
+      if (frame.bitmap != null) {
+        pool.releaseBitmap(frame.bitmap);
+      }
+      inFlight.decrementAndGet();
+    }
+  }
+
+  /**
+   * Moves to the next finer scale after enough misses, and back to the coarsest
+   * one after a hit or after enough misses at the finest scale.
+   */
+  private void updatePyramid(boolean found) {
+    if (pyramidScales.length == 1) {
+      return;
+    }
+    if (found) {
+      missesAtLevel = 0;
+      pyramidLevel = 0;
+      return;
+    }
+    if (++missesAtLevel >= pyramidMisses) {
+      missesAtLevel = 0;
+      pyramidLevel = (pyramidLevel + 1) % pyramidScales.length;
+    }
+  }
+
+  /**
+   * Runs the miss callback after enough frames in a row without a barcode.
+   */
+  private void countMisses(boolean found) {
+    if (missCallback == null) {
+      return;
+    }
+    if (found) {
+      consecutiveMisses = 0;
+    } else if (++consecutiveMisses >= missCallbackMisses) {
+      consecutiveMisses = 0;
+      mainHandler.post(missCallback);
+    }
+  }
+
+  /**
+   * Returns how busy the pipeline is: the share of time since the first frame
+   * each stage was working, the frames waiting for or in detection and the
+   * frames dropped because the queue was full.
+   */
+  public JSONObject getPipelineStats() throws JSONException {
+    long elapsed = firstFrameTime == 0 ? 0 : SystemClock.elapsedRealtimeNanos() - firstFrameTime;
+
+    JSONObject stats = new JSONObject();
+    stats.put("queueDepth", queueDepth);
+    stats.put("inFlight", inFlight.get());
+    stats.put("maxInFlight", maxInFlight);
+    stats.put("queueFullDrops", queueFullDrops.get());
+    stats.put("scale", pyramidScales[Math.min(pyramidLevel, pyramidScales.length - 1)]);
+    if (scheduler != null) {
+      stats.put("scheduledFrames", scheduler.getAnalyzedFrames());
+      stats.put("throttledFrames", scheduler.getDroppedFrames());
+      stats.put("thermalStatus", scheduler.getThermalStatus());
+      stats.put("minIntervalMs", scheduler.getMinInterval() / 1e6);
+    }
+    if (sharpnessGate != null) {
+      stats.put("sharpFrames", sharpnessGate.getPassedFrames());
+      stats.put("blurryFrames", sharpnessGate.getSkippedFrames());
+      stats.put("sharpnessScore", sharpnessGate.getLastScore());
+      stats.put("sharpnessThreshold", sharpnessGate.getThreshold());
+    }
+    if (autoTorch != null) {
+      stats.put("meanLuma", autoTorch.getMeanLuma());
+      stats.put("darkShare", autoTorch.getDarkShare());
+    }
+    if (tracker != null) {
+      stats.put("trackedFrames", tracker.getTrackedFrames());
+      stats.put("fullFrames", tracker.getFullFrames());
+    }
+    stats.put("conversionOccupancy", elapsed == 0 ? 0 : (double) conversionBusy.get() / elapsed);
+    stats.put("detectionOccupancy", elapsed == 0 ? 0 : (double) detectionBusy.get() / elapsed);
+    return stats;
+  }
+
+  /** Returns the pool backing the frame conversion, e.g. to read its allocation counters. */
+  public FrameBufferPool getFramePool() {
+    return pool;
+  }
+
+  /**
+   * Stops the detector thread, drops the pooled buffers and bitmaps and hands
+   * the ML Kit client back. Call once the analyzer is not used anymore.
+   */
+  public void release() {
+    try {
+      Log.d(TAG, "Pipeline: " + getPipelineStats());
+    } catch (JSONException e) {
+      // Only logged.
+    }
+    detector.shutdownNow();
+    pool.clear();
+    CameraResources.releaseScanner(scanner);
+  }
+
+  /** A plane of the current frame as {@link YuvPlane}. */
+  private static class ProxyPlane implements YuvPlane {
+    ImageProxy.PlaneProxy plane;
+
+    @Override
+    public ByteBuffer getBuffer() {
+      return plane.getBuffer();
+    }
+
+    @Override
+    public int getRowStride() {
+      return plane.getRowStride();
+    }
+
+    @Override
+    public int getPixelStride() {
+      return plane.getPixelStride();
+    }
+  }
+
+  /** A converted frame on its way to the detector. */
+  private class Frame implements Runnable {
+    final InputImage image;
+    Rect detectorRect;
+    int scale;
+    long timestamp;
+    int uprightWidth;
+    int uprightHeight;
+    long conversionTime;
+    long queuedAt;
+    // Pooled objects backing the image.
+    byte[] buffer;
+    Bitmap bitmap;
+
+    Frame(InputImage image) {
+      this.image = image;
+    }
+
+    @Override
+    public void run() {
+      detect(this);
+    }
+  }
+
+  /**
+   * Computes the detector region on the upright image the user sees.
+   */
+  private Rect getUprightDetectorRect(ImageProxy image, int rotation) {
+    boolean swap = rotation % 180 != 0;
+    return region.getRect(swap ? image.getHeight() : image.getWidth(), swap ? image.getWidth() : image.getHeight());
+  }
+
+  /**
+   * Describes the frame together with the detector region in sensor
+   * coordinates, so only that region has to be converted.
+   */
+  private FrameMetadata getFrameMetadata(ImageProxy image, int rotation, Rect detectorRect) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+
+    YuvConverter.toSensorRect(detectorRect.left, detectorRect.top, detectorRect.right, detectorRect.bottom, width,
+        height, rotation, sensorRect);
+    cropRect.set(sensorRect[0], sensorRect[1], sensorRect[2], sensorRect[3]);
+    return frameMetadata.set(width, height, rotation, cropRect);
+  }
+
+  /**
+   * Points the reused plane wrappers at the planes of the frame. The planes of
+   * the ImageProxy are taken instead of the ones of its Image, which hands out a
+   * new array on every call.
+   */
+  private YuvPlane[] wrapPlanes(ImageProxy image) {
+    ImageProxy.PlaneProxy[] imagePlanes = image.getPlanes();
+    for (int i = 0; i < planes.length; i++) {
+      planes[i].plane = imagePlanes[i];
+    }
+    return planes;
+  }
+
+  /**
+   * Returns the clockwise rotation that turns a camera frame upright. With
+   * 'rotateCamera' the sensor is mounted upside down, which the preview undoes by
+   * flipping both axes, i.e. by another 180 degrees.
+   */
+  static int getUprightRotation(int rotationDegrees, boolean rotateCamera) {
+    return YuvConverter.getUprightRotation(rotationDegrees, rotateCamera);
+  }
+}
@@ -0,0 +1,294 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Point;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.view.SurfaceHolder;
+
+import com.google.mlkit.vision.barcode.Barcode;
+
+import java.util.List;
+
+/**
+ * Draws the detector region and the barcodes found in it onto the overlay
+ * surface of the scanner screen.
+ *
+ * <p>
+ * Everything happens on a render thread of its own: the barcodes are handed
+ * over by the detector thread, mapped from frame to view coordinates and drawn
+ * there, so the UI thread and the preview are not slowed down. Results arriving
+ * while a frame is still being drawn replace each other, only the latest one is
+ * drawn. Paints and paths are allocated once, and only the part of the surface
+ * covering the boxes drawn before and the ones drawn now is locked and redrawn.
+ */
+class BarcodeOverlay {
+
+  /** Time boxes stay visible after the last frame they were found in. */
+  private static final long HOLD_NANOS = 300000000L;
+
+  private static final int MAX_CORNERS = 16 * 4;
+  private static final float CORNER_RADIUS = 8;
+  private static final float FOCUS_CORNER_RADIUS = 100;
+
+  private final SurfaceHolder holder;
+  private final DetectorRegion region;
+  private final HandlerThread thread = new HandlerThread("BarcodeOverlay");
+  private final Handler handler;
+
+  // Render thread state, allocated once.
+  private final Paint clearPaint = new Paint();
+  private final Paint focusPaint = new Paint();
+  private final Paint boxPaint = new Paint();
+  private final Paint cornerPaint = new Paint();
+  private final Path boxPath = new Path();
+  private final float[] corners = new float[MAX_CORNERS * 2];
+  private final RectF focusRect = new RectF();
+  private final RectF drawnBounds = new RectF();
+  private final RectF bounds = new RectF();
+  private final RectF area = new RectF();
+  private final Rect dirty = new Rect();
+  private int cornerCount;
+  private long lastHit;
+  private boolean boxesShown;
+
+  // Handed over from the detector thread, guarded by 'this'.
+  private List<Barcode> pendingBarcodes;
+  private Rect pendingDetectorRect;
+  private int pendingScale;
+  private int pendingFrameWidth;
+  private int pendingFrameHeight;
+  private boolean drawPending;
+  private int viewWidth;
+  private int viewHeight;
+
+  private final Runnable drawBarcodes = new Runnable() {
+    @Override
+    public void run() {
+      List<Barcode> barcodes;
+      Rect detectorRect;
+      int scale;
+      int frameWidth;
+      int frameHeight;
+      int width;
+      int height;
+      synchronized (BarcodeOverlay.this) {
+        barcodes = pendingBarcodes;
+        detectorRect = pendingDetectorRect;
+        scale = pendingScale;
+        frameWidth = pendingFrameWidth;
+        frameHeight = pendingFrameHeight;
+        width = viewWidth;
+        height = viewHeight;
+        pendingBarcodes = null;
+        drawPending = false;
+      }
+      if (barcodes == null || width == 0 || height == 0) {
+        return;
+      }
+      long now = SystemClock.elapsedRealtimeNanos();
+      if (barcodes.isEmpty()) {
+        if (!boxesShown || now - lastHit < HOLD_NANOS) {
+          return;
+        }
+      } else {
+        lastHit = now;
+      }
+      buildBoxes(barcodes, detectorRect, scale, frameWidth, frameHeight, width, height);
+      draw(false);
+    }
+  };
+
+  private final Runnable drawAll = new Runnable() {
+    @Override
+    public void run() {
+      int width;
+      int height;
+      synchronized (BarcodeOverlay.this) {
+        width = viewWidth;
+        height = viewHeight;
+      }
+      if (width == 0 || height == 0) {
+        return;
+      }
+      focusRect.set(region.getRect(width, height));
+      draw(true);
+    }
+  };
+
+  BarcodeOverlay(SurfaceHolder holder, DetectorRegion region) {
+    this.holder = holder;
+    this.region = region;
+
+    clearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+    focusPaint.setStyle(Paint.Style.STROKE);
+    focusPaint.setStrokeWidth(5);
+    focusPaint.setAntiAlias(true);
+    boxPaint.setStyle(Paint.Style.STROKE);
+    boxPaint.setStrokeWidth(4);
+    boxPaint.setAntiAlias(true);
+    cornerPaint.setStyle(Paint.Style.FILL);
+    cornerPaint.setAntiAlias(true);
+    setColors(0xFFFFFFFF, 0xFF00E676);
+
+    thread.start();
+    handler = new Handler(thread.getLooper());
+  }
+
+  /** Sets the color of the detector region and of the barcodes. */
+  void setColors(int focusColor, int barcodeColor) {
+    focusPaint.setColor(focusColor);
+    boxPaint.setColor(barcodeColor);
+    cornerPaint.setColor(barcodeColor);
+  }
+
+  /** Sets the size of the surface and redraws all of it. Called when it changes. */
+  void setViewSize(int width, int height) {
+    synchronized (this) {
+      viewWidth = width;
+      viewHeight = height;
+    }
+    handler.post(drawAll);
+  }
+
+  /** Redraws the whole surface, e.g. after its colors changed. */
+  void redraw() {
+    handler.post(drawAll);
+  }
+
+  /**
+   * Shows the barcodes found in a frame, replacing the ones shown before. Can be
+   * called from any thread.
+   *
+   * @param barcodes     the barcodes found, empty if none.
+   * @param detectorRect the region of the upright frame they were detected in.
+   * @param scale        the factor the region was downscaled by.
+   * @param frameWidth   width of the upright frame.
+   * @param frameHeight  height of the upright frame.
+   */
+  void show(List<Barcode> barcodes, Rect detectorRect, int scale, int frameWidth, int frameHeight) {
+    synchronized (this) {
+      pendingBarcodes = barcodes;
+      pendingDetectorRect = detectorRect;
+      pendingScale = scale;
+      pendingFrameWidth = frameWidth;
+      pendingFrameHeight = frameHeight;
+      if (drawPending) {
+        return;
+      }
+      drawPending = true;
+    }
+    handler.post(drawBarcodes);
+  }
+
+  /** Stops the render thread. */
+  void release() {
+    thread.quitSafely();
+  }
+
+  /**
+   * Maps the boxes and corners to view coordinates, assuming the preview fills
+   * the view centered like the analysis frame does.
+   */
+  private void buildBoxes(List<Barcode> barcodes, Rect detectorRect, int scale, int frameWidth, int frameHeight,
+      int width, int height) {
+    float viewScale = Math.max((float) width / frameWidth, (float) height / frameHeight);
+    float offsetX = (width - frameWidth * viewScale) / 2 + detectorRect.left * viewScale;
+    float offsetY = (height - frameHeight * viewScale) / 2 + detectorRect.top * viewScale;
+    float factor = scale * viewScale;
+
+    boxPath.rewind();
+    bounds.setEmpty();
+    cornerCount = 0;
+    boolean hasBounds = false;
+    for (Barcode barcode : barcodes) {
+      Point[] points = barcode.getCornerPoints();
+      if (points == null || points.length == 0) {
+        continue;
+      }
+      for (int i = 0; i < points.length; i++) {
+        float x = offsetX + points[i].x * factor;
+        float y = offsetY + points[i].y * factor;
+        if (i == 0) {
+          boxPath.moveTo(x, y);
+        } else {
+          boxPath.lineTo(x, y);
+        }
+        if (cornerCount < MAX_CORNERS) {
+          corners[cornerCount * 2] = x;
+          corners[cornerCount * 2 + 1] = y;
+          cornerCount++;
+        }
+        if (hasBounds) {
+          bounds.union(x, y);
+        } else {
+          bounds.set(x, y, x, y);
+          hasBounds = true;
+        }
+      }
+      boxPath.close();
+    }
+    if (cornerCount > 0) {
+      float margin = CORNER_RADIUS + boxPaint.getStrokeWidth();
+      bounds.inset(-margin, -margin);
+    }
+  }
+
+  /**
+   * Redraws the part of the surface the old and the new boxes cover, or all of
+   * it.
+   */
+  private void draw(boolean all) {
+    if (all) {
+      dirty.setEmpty();
+    } else {
+      area.set(drawnBounds);
+      if (cornerCount > 0) {
+        area.union(bounds);
+      }
+      if (area.isEmpty()) {
+        return;
+      }
+      area.roundOut(dirty);
+    }
+
+    Canvas canvas = null;
+    try {
+      canvas = all ? holder.lockCanvas() : holder.lockCanvas(dirty);
+    } catch (IllegalArgumentException e) {
+      // The surface is gone.
+    }
+    if (canvas == null) {
+      return;
+    }
+    try {
+      // The canvas is clipped to the locked area, which may be larger than the one
+      // requested, so everything inside of it is drawn again.
+      canvas.drawPaint(clearPaint);
+      if (Math.min(region.widthFraction, region.heightFraction) <= 0.3) {
+        canvas.drawRect(focusRect, focusPaint);
+      } else {
+        canvas.drawRoundRect(focusRect, FOCUS_CORNER_RADIUS, FOCUS_CORNER_RADIUS, focusPaint);
+      }
+      if (cornerCount > 0) {
+        canvas.drawPath(boxPath, boxPaint);
+        for (int i = 0; i < cornerCount; i++) {
+          canvas.drawCircle(corners[i * 2], corners[i * 2 + 1], CORNER_RADIUS, cornerPaint);
+        }
+        drawnBounds.set(bounds);
+      } else {
+        drawnBounds.setEmpty();
+      }
+      boxesShown = cornerCount > 0;
+    } finally {
+      holder.unlockCanvasAndPost(canvas);
+    }
+  }
+}
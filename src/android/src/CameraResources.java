@@ -0,0 +1,192 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.hardware.camera2.CameraManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.camera.lifecycle.ProcessCameraProvider;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.mlkit.vision.barcode.Barcode;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
+import com.google.mlkit.vision.barcode.BarcodeScanning;
+import com.google.mlkit.vision.common.InputImage;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches the objects that are expensive to set up for a scan, so they are only
+ * resolved once per process instead of once per scan.
+ *
+ * <p>
+ * {@link #prepare} resolves all of them ahead of time, which moves the cold
+ * start work out of the time-to-first-frame of the first scan.
+ *
+ * <p>
+ * The ML Kit client is counted by its users. A scan with other formats gets a
+ * client of its own, and the one it replaces is only closed once the last scan
+ * still detecting with it has released it.
+ */
+final class CameraResources {
+
+  private static final String TAG = "MLKitBarcodeScanner";
+
+  /** Every format the plugin offers, as the JavaScript side enables by default. */
+  static final int ALL_FORMATS = (Barcode.FORMAT_AZTEC << 1) - 1;
+
+  private static ListenableFuture<ProcessCameraProvider> cameraProviderFuture;
+  private static BarcodeScanner scanner;
+  private static int scannerFormats;
+  private static int scannerUsers;
+  // Replaced clients that are still in use, with their number of users.
+  private static final List<BarcodeScanner> retiredScanners = new ArrayList<>();
+  private static final List<Integer> retiredUsers = new ArrayList<>();
+  private static int numberOfCameras;
+
+  private static long coldTimeToFirstFrame = -1;
+  private static long warmTimeToFirstFrame = -1;
+
+  private CameraResources() {
+  }
+
+  /**
+   * Maps the format flags passed by JavaScript to the formats of the detector.
+   */
+  static int getDetectorFormats(int barcodeFormats) {
+    if (barcodeFormats == 0 || barcodeFormats == 1234) {
+      return Barcode.FORMAT_CODE_39 | Barcode.FORMAT_DATA_MATRIX;
+    }
+    return barcodeFormats;
+  }
+
+  static synchronized ListenableFuture<ProcessCameraProvider> getCameraProvider(Context context) {
+    if (cameraProviderFuture == null || cameraProviderFuture.isCancelled()) {
+      cameraProviderFuture = ProcessCameraProvider.getInstance(context.getApplicationContext());
+    }
+    return cameraProviderFuture;
+  }
+
+  /**
+   * Returns the ML Kit client for the given detector formats, which has to be
+   * handed back with {@link #releaseScanner} once it is no longer used. The
+   * client is kept for the next scan and only replaced when the formats change.
+   */
+  static synchronized BarcodeScanner acquireScanner(int detectorFormats) {
+    if (scanner == null || scannerFormats != detectorFormats) {
+      if (scanner != null) {
+        if (scannerUsers > 0) {
+          retiredScanners.add(scanner);
+          retiredUsers.add(scannerUsers);
+        } else {
+          scanner.close();
+        }
+      }
+      scanner = BarcodeScanning
+          .getClient(new BarcodeScannerOptions.Builder().setBarcodeFormats(detectorFormats).build());
+      scannerFormats = detectorFormats;
+      scannerUsers = 0;
+    }
+    scannerUsers++;
+    return scanner;
+  }
+
+  /**
+   * Hands back a client of {@link #acquireScanner}. The current client stays
+   * open for the next scan, a replaced one is closed with its last user.
+   */
+  static synchronized void releaseScanner(BarcodeScanner released) {
+    if (released == scanner) {
+      scannerUsers = Math.max(0, scannerUsers - 1);
+      return;
+    }
+    int index = retiredScanners.indexOf(released);
+    if (index < 0) {
+      return;
+    }
+    int users = retiredUsers.get(index) - 1;
+    if (users > 0) {
+      retiredUsers.set(index, users);
+    } else {
+      retiredScanners.remove(index);
+      retiredUsers.remove(index);
+      released.close();
+    }
+  }
+
+  /** Returns the number of cameras, querying the camera service only until one is found. */
+  static synchronized int getNumberOfCameras(Context context) {
+    if (numberOfCameras == 0) {
+      CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+      try {
+        numberOfCameras = cameraManager.getCameraIdList().length;
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+    return numberOfCameras;
+  }
+
+  /** True if the camera provider and the client for the given formats are ready. */
+  static synchronized boolean isPrepared(int detectorFormats) {
+    return cameraProviderFuture != null && cameraProviderFuture.isDone() && scanner != null
+        && scannerFormats == detectorFormats;
+  }
+
+  /**
+   * Resolves the camera provider, creates the ML Kit client and runs it once on
+   * a blank image, so the model is loaded. Blocks, must not be called on the main
+   * thread.
+   *
+   * @return the time spent on each step in milliseconds.
+   */
+  static JSONObject prepare(Context context, int detectorFormats) throws Exception {
+    long start = SystemClock.elapsedRealtime();
+    getNumberOfCameras(context);
+    long cameras = SystemClock.elapsedRealtime();
+    getCameraProvider(context).get();
+    long provider = SystemClock.elapsedRealtime();
+
+    Bitmap blank = Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888);
+    BarcodeScanner warmed = acquireScanner(detectorFormats);
+    try {
+      Tasks.await(warmed.process(InputImage.fromBitmap(blank, 0)));
+    } finally {
+      releaseScanner(warmed);
+      blank.recycle();
+    }
+    long model = SystemClock.elapsedRealtime();
+
+    JSONObject timings = new JSONObject();
+    timings.put("cameraList", cameras - start);
+    timings.put("cameraProvider", provider - cameras);
+    timings.put("scanner", model - provider);
+    Log.d(TAG, "Prepared in " + (model - start) + " ms: " + timings);
+    return timings;
+  }
+
+  /** Records the time from the scan request to the first analyzed frame. */
+  static synchronized void recordTimeToFirstFrame(long millis, boolean warm) {
+    if (warm) {
+      warmTimeToFirstFrame = millis;
+    } else {
+      coldTimeToFirstFrame = millis;
+    }
+    Log.d(TAG, "Time to first frame (" + (warm ? "warm" : "cold") + "): " + millis + " ms");
+  }
+
+  /** Returns the last cold and warm time-to-first-frame, -1 if not measured yet. */
+  static synchronized JSONObject getTimeToFirstFrame() throws JSONException {
+    JSONObject result = new JSONObject();
+    result.put("cold", coldTimeToFirstFrame);
+    result.put("warm", warmTimeToFirstFrame);
+    return result;
+  }
+}
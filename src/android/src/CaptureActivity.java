@@ -1,18 +1,14 @@
 package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
 
 import android.Manifest;
-import android.annotation.SuppressLint;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.PixelFormat;
-import android.graphics.PorterDuff;
-import android.graphics.RectF;
+import android.graphics.Rect;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Size;
 
 import android.view.GestureDetector;
 import android.view.MotionEvent;
@@ -25,11 +21,9 @@ import android.widget.ImageButton;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.camera.core.AspectRatio;
 import androidx.camera.core.Camera;
 import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageAnalysis;
-import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
@@ -39,45 +33,52 @@ import androidx.lifecycle.LifecycleOwner;
 import androidx.lifecycle.LiveData;
 
 import com.google.android.gms.common.api.CommonStatusCodes;
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.mlkit.vision.barcode.Barcode;
 import com.google.mlkit.vision.barcode.BarcodeScanner;
-import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
-import com.google.mlkit.vision.barcode.BarcodeScanning;
-import com.google.mlkit.vision.common.InputImage;
-import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.BitmapUtils;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.AutoTorch;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.FrameScheduler;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.ScanStats;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.SharpnessGate;
 
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.Callback {
 
   public Integer BarcodeFormats;
   public double DetectorSize = .5;
+  public DetectorRegion Region;
+  public boolean ContinuousScan = false;
+  public boolean MultiResult = false;
+  public int MinResults = 1;
 
   public static final String BarcodeFormat = "MLKitBarcodeFormat";
   public static final String BarcodeType = "MLKitBarcodeType";
   public static final String BarcodeValue = "MLKitBarcodeValue";
 
   private ListenableFuture<ProcessCameraProvider> cameraProviderFuture;
+  private boolean firstFrameRecorded = false;
+  private boolean firstDecodeRecorded = false;
   private ExecutorService executor = Executors.newSingleThreadExecutor();
   private PreviewView mCameraView;
   private SurfaceHolder holder;
   private SurfaceView surfaceView;
-  private Canvas canvas;
-  private Paint paint;
+  private BarcodeOverlay overlay;
+  private RegionMetering metering;
+  private AutoTorch autoTorch;
 
   private static final int RC_HANDLE_CAMERA_PERM = 2;
   private ImageButton _TorchButton;
   private Camera camera;
+  private BarcodeAnalyzer analyzer;
+  private final LinkedHashMap<String, ScanResult> multiResults = new LinkedHashMap<>();
 
   private ScaleGestureDetector _ScaleGestureDetector;
   private GestureDetector _GestureDetector;
@@ -98,11 +99,20 @@ public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.
     // read parameters from the intent used to launch the activity.
     BarcodeFormats = getIntent().getIntExtra("BarcodeFormats", 1234);
     DetectorSize = getIntent().getDoubleExtra("DetectorSize", .5);
+    ContinuousScan = getIntent().getBooleanExtra("ContinuousScan", false);
+    MultiResult = getIntent().getBooleanExtra("MultiResult", false);
+    MinResults = getIntent().getIntExtra("MinResults", 1);
 
     if (DetectorSize <= 0 || DetectorSize >= 1) { // setting boundary detectorSize must be between 0 to 1.
       DetectorSize = 0.5;
     }
 
+    Region = DetectorRegion.from(CameraResources.getDetectorFormats(BarcodeFormats), DetectorSize,
+        getIntent().getDoubleExtra("DetectorWidth", 0), getIntent().getDoubleExtra("DetectorHeight", 0));
+    overlay = new BarcodeOverlay(holder, Region);
+
+    ScanSession.attach(this);
+
     int rc = ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA);
 
     if (rc == PackageManager.PERMISSION_GRANTED) {
@@ -124,9 +134,11 @@ public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.
         LiveData<Integer> flashState = camera.getCameraInfo().getTorchState();
         if (flashState.getValue() != null) {
           boolean state = flashState.getValue() == 1;
-          _TorchButton.setBackgroundResource(getResources().getIdentifier(!state ? "torch_active" : "torch_inactive",
-              "drawable", CaptureActivity.this.getPackageName()));
-          camera.getCameraControl().enableTorch(!state);
+          // Switched by hand, leave it that way.
+          if (autoTorch != null) {
+            autoTorch.disable();
+          }
+          setTorch(!state);
         }
 
       }
@@ -134,13 +146,32 @@ public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.
 
   }
 
+  /**
+   * Switches the torch and shows its state on the torch button.
+   */
+  private void setTorch(boolean on) {
+    if (camera == null) {
+      return;
+    }
+    _TorchButton.setBackgroundResource(
+        getResources().getIdentifier(on ? "torch_active" : "torch_inactive", "drawable", getPackageName()));
+    camera.getCameraControl().enableTorch(on);
+  }
+
   // ----------------------------------------------------------------------------
   // | Helper classes
   // ----------------------------------------------------------------------------
   private class CaptureGestureListener extends GestureDetector.SimpleOnGestureListener {
     @Override
     public boolean onSingleTapConfirmed(MotionEvent e) {
-      return super.onSingleTapConfirmed(e);
+      if (metering == null) {
+        return super.onSingleTapConfirmed(e);
+      }
+      // The event is relative to the window, the metering to the preview.
+      int[] location = new int[2];
+      mCameraView.getLocationOnScreen(location);
+      metering.meterPoint(e.getRawX() - location[0], e.getRawY() - location[1]);
+      return true;
     }
   }
 
@@ -204,7 +235,7 @@ public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.
 
     if (grantResults.length != 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
       startCamera();
-      DrawFocusRect(Color.parseColor("#FFFFFF"));
+      overlay.redraw();
       return;
     }
 
@@ -226,8 +257,8 @@ public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.
   }
 
   @Override
-  public void surfaceChanged(SurfaceHolder surfaceHolder, int i, int i1, int i2) {
-    DrawFocusRect(Color.parseColor("#FFFFFF"));
+  public void surfaceChanged(SurfaceHolder surfaceHolder, int format, int width, int height) {
+    overlay.setViewSize(width, height);
   }
 
   @Override
@@ -255,6 +286,18 @@ public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.
 
   }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    ScanSession.detach(this);
+    executor.shutdown();
+    overlay.release();
+    if (analyzer != null) {
+      ScanSession.clearAnalyzer(analyzer);
+      analyzer.release();
+    }
+  }
+
   void startCamera() {
     mCameraView = findViewById(getResources().getIdentifier("previewView", "id", getPackageName()));
     mCameraView.setPreferredImplementationMode(PreviewView.ImplementationMode.TEXTURE_VIEW);
@@ -270,7 +313,7 @@ public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.
 
     // mCameraView.setScaleType(PreviewView.ScaleType.FIT_CENTER);
 
-    cameraProviderFuture = ProcessCameraProvider.getInstance(this);
+    cameraProviderFuture = CameraResources.getCameraProvider(this);
     cameraProviderFuture.addListener(new Runnable() {
       @Override
       public void run() {
@@ -291,12 +334,7 @@ public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.
    */
   private void bindPreview(ProcessCameraProvider cameraProvider) {
 
-    int barcodeFormat;
-    if (BarcodeFormats == 0 || BarcodeFormats == 1234) {
-      barcodeFormat = (Barcode.FORMAT_CODE_39 | Barcode.FORMAT_DATA_MATRIX);
-    } else {
-      barcodeFormat = BarcodeFormats;
-    }
+    int barcodeFormat = CameraResources.getDetectorFormats(BarcodeFormats);
 
     Preview preview = new Preview.Builder().build();
 
@@ -305,142 +343,152 @@ public class CaptureActivity extends AppCompatActivity implements SurfaceHolder.
 
     preview.setSurfaceProvider(mCameraView.createSurfaceProvider());
 
+    Size analysisResolution = ResolutionSelector.select(this, BarcodeFormats, Region.getBarcodeSpan(),
+        getIntent().getIntExtra("AnalysisWidth", 0), getIntent().getIntExtra("AnalysisHeight", 0));
+
     ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
-        .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST).setTargetAspectRatio(AspectRatio.RATIO_16_9)
+        .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST).setTargetResolution(analysisResolution)
         .build();
 
-    BarcodeScanner scanner = BarcodeScanning
-        .getClient(new BarcodeScannerOptions.Builder().setBarcodeFormats(barcodeFormat).build());
-
-    imageAnalysis.setAnalyzer(executor, new ImageAnalysis.Analyzer() {
-      @SuppressLint("UnsafeExperimentalUsageError")
-      @Override
-      public void analyze(@NonNull ImageProxy image) {
+    BarcodeScanner scanner = CameraResources.acquireScanner(barcodeFormat);
 
-        if (image == null || image.getImage() == null) {
-          return;
-        }
+    String analysisMode = getIntent().getStringExtra("AnalysisMode");
 
-        Bitmap bmp = BitmapUtils.getBitmap(image);
+    boolean rotateCamera = getIntent().getBooleanExtra("RotateCamera", false);
 
-        int height = bmp.getHeight();
-        int width = bmp.getWidth();
+    int queueDepth = getIntent().getIntExtra("QueueDepth", 1);
 
-        int left, right, top, bottom, diameter, boxHeight, boxWidth;
+    analyzer = new BarcodeAnalyzer(scanner, analysisMode, Region, rotateCamera, queueDepth,
+        new BarcodeAnalyzer.Listener() {
+          @Override
+          public void onBarcodesDetected(List<Barcode> barCodes, Rect detectorRect, int scale) {
+            if (isFinishing()) {
+              return;
+            }
+            recordTimeToFirstDecode();
 
-        diameter = width;
-        if (height < width) {
-          diameter = height;
-        }
+            for (Barcode barcode : barCodes) {
+              // Toast.makeText(CaptureActivity.this, "FOUND: " + barcode.getDisplayValue(),
+              // Toast.LENGTH_SHORT).show();
+              ScanResult result = ScanResult.from(barcode, detectorRect, scale);
+              if (ScanSession.getDuplicateCache().isDuplicate(result.format, result.value)) {
+                // Read recently, keep scanning for a new value.
+                continue;
+              }
 
-        int offset = (int) ((1 - DetectorSize) * diameter);
-        diameter -= offset;
-
-        left = width / 2 - diameter / 2;
-        top = height / 2 - diameter / 2;
-        right = width / 2 + diameter / 2;
-        bottom = height / 2 + diameter / 2;
-
-        boxHeight = bottom - top;
-        boxWidth = right - left;
-
-        Bitmap bitmap = Bitmap.createBitmap(bmp, left, top, boxWidth, boxHeight);
-        scanner.process(InputImage.fromBitmap(bitmap, image.getImageInfo().getRotationDegrees()))
-            .addOnSuccessListener(new OnSuccessListener<List<Barcode>>() {
-              @Override
-              public void onSuccess(List<Barcode> barCodes) {
-
-                // # Code to test image viewfinder
-                /*
-                 * ImageView imageView = (ImageView)
-                 * findViewById(getResources().getIdentifier("imageView", "id",
-                 * getPackageName())); imageView.setImageBitmap(bitmap);
-                 */
-
-                if (barCodes.size() > 0) {
-                  for (Barcode barcode : barCodes) {
-                    // Toast.makeText(CaptureActivity.this, "FOUND: " + barcode.getDisplayValue(),
-                    // Toast.LENGTH_SHORT).show();
-                    Intent data = new Intent();
-                    String value = barcode.getRawValue();
-
-                    // rawValue returns null if string is not UTF-8 encoded.
-                    // If that's the case, we will decode it as ASCII,
-                    // because it's the most common encoding for barcodes.
-                    // e.g. https://www.barcodefaq.com/1d/code-128/
-                    if (barcode.getRawValue() == null) {
-                      value = new String(barcode.getRawBytes(), StandardCharsets.US_ASCII);
-                    }
-
-                    data.putExtra(BarcodeFormat, barcode.getFormat());
-                    data.putExtra(BarcodeType, barcode.getValueType());
-                    data.putExtra(BarcodeValue, value);
-                    setResult(CommonStatusCodes.SUCCESS, data);
-                    finish();
-
-                  }
-                }
+              if (ContinuousScan) {
+                // Keep the camera running and stream the barcode to the plugin.
+                ScanSession.deliver(result);
+                continue;
               }
-            }).addOnFailureListener(new OnFailureListener() {
-              @Override
-              public void onFailure(@NonNull Exception e) {
 
+              if (MultiResult) {
+                // Collect the codes of this and the following frames until enough
+                // distinct ones have been seen.
+                multiResults.put(result.getKey(), result);
+                continue;
               }
-            }).addOnCompleteListener(new OnCompleteListener<List<Barcode>>() {
-              @Override
-              public void onComplete(@NonNull Task<List<Barcode>> task) {
-                image.close();
+
+              Intent data = new Intent();
+              data.putExtra(BarcodeFormat, result.format);
+              data.putExtra(BarcodeType, result.type);
+              data.putExtra(BarcodeValue, result.value);
+              setResult(CommonStatusCodes.SUCCESS, data);
+              finish();
+              return;
+            }
+
+            if (MultiResult && multiResults.size() >= Math.max(1, MinResults)) {
+              Intent data = new Intent();
+              ScanResult.putExtras(data, new ArrayList<>(multiResults.values()));
+              setResult(CommonStatusCodes.SUCCESS, data);
+              finish();
+            }
+          }
+        });
+    int[] pyramidScales = getIntent().getIntArrayExtra("PyramidScales");
+    if (pyramidScales != null && pyramidScales.length > 0) {
+      analyzer.setPyramid(pyramidScales, getIntent().getIntExtra("PyramidMisses", 3));
+    }
+    if (getIntent().getBooleanExtra("AutoTorch", false)) {
+      autoTorch = new AutoTorch(new AutoTorch.Listener() {
+        @Override
+        public void onTorchChanged(final boolean on) {
+          runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+              if (!isFinishing()) {
+                setTorch(on);
               }
-            });
+            }
+          });
+        }
+      });
+      analyzer.setAutoTorch(autoTorch);
+    }
+    if (getIntent().getBooleanExtra("RegionMetering", true)) {
+      metering = new RegionMetering(mCameraView, cameraSelector, Region);
+      analyzer.setMissCallback(getIntent().getIntExtra("MeteringMisses", 30), new Runnable() {
+        @Override
+        public void run() {
+          if (!isFinishing()) {
+            metering.meterRegion();
+          }
+        }
+      });
+    }
+    if (getIntent().getBooleanExtra("ShowBarcodes", false)) {
+      analyzer.setOverlay(overlay);
+    }
+    if (getIntent().getBooleanExtra("Tracking", false)) {
+      analyzer.setTracking(getIntent().getIntExtra("TrackingMisses", 5));
+    }
+    if (getIntent().getBooleanExtra("SharpnessGate", true)) {
+      analyzer.setSharpnessGate(new SharpnessGate());
+    }
+    if (getIntent().getBooleanExtra("AdaptiveScheduling", true)) {
+      analyzer.setFrameScheduler(new FrameScheduler(this));
+    }
+    analyzer.setFirstFrameCallback(new Runnable() {
+      @Override
+      public void run() {
+        recordTimeToFirstFrame();
       }
-
     });
+    imageAnalysis.setAnalyzer(executor, analyzer);
+    ScanSession.setAnalyzer(analyzer);
 
     camera = cameraProvider.bindToLifecycle((LifecycleOwner) this, cameraSelector, imageAnalysis, preview);
+    if (metering != null) {
+      metering.setCamera(camera);
+    }
   }
 
   /**
-   * For drawing the rectangular box
+   * Reports the time from the scan request in the plugin to the first frame that
+   * reached the analyzer.
    */
-  private void DrawFocusRect(int color) {
-
-    if (mCameraView != null) {
-      int height = mCameraView.getHeight();
-      int width = mCameraView.getWidth();
-
-      int left, right, top, bottom, diameter;
-
-      diameter = width;
-      if (height < width) {
-        diameter = height;
-      }
-
-      int offset = (int) ((1 - DetectorSize) * diameter);
-      diameter -= offset;
-
-      canvas = holder.lockCanvas();
-      canvas.drawColor(0, PorterDuff.Mode.CLEAR);
-      // border's properties
-      paint = new Paint();
-      paint.setStyle(Paint.Style.STROKE);
-      paint.setColor(color);
-      paint.setStrokeWidth(5);
-
-      left = width / 2 - diameter / 2;
-      top = height / 2 - diameter / 2;
-      right = width / 2 + diameter / 2;
-      bottom = height / 2 + diameter / 2;
-
-      // Changing the value of x in diameter/x will change the size of the box ;
-      // inversely proportionate to x
-      if (DetectorSize <= 0.3) {
-        canvas.drawRect(new RectF(left, top, right, bottom), paint);
-      } else {
-        canvas.drawRoundRect(new RectF(left, top, right, bottom), 100, 100, paint);
-      }
-
-      holder.unlockCanvasAndPost(canvas);
+  private void recordTimeToFirstFrame() {
+    long requestTime = getIntent().getLongExtra("RequestTime", 0);
+    if (firstFrameRecorded || requestTime == 0) {
+      return;
     }
+    firstFrameRecorded = true;
+    CameraResources.recordTimeToFirstFrame(SystemClock.elapsedRealtime() - requestTime,
+        getIntent().getBooleanExtra("Prewarmed", false));
+  }
 
+  /**
+   * Reports the time from the scan request in the plugin to the first barcode
+   * that was read.
+   */
+  private void recordTimeToFirstDecode() {
+    long requestTime = getIntent().getLongExtra("RequestTime", 0);
+    if (firstDecodeRecorded || requestTime == 0) {
+      return;
+    }
+    firstDecodeRecorded = true;
+    ScanStats.recordTimeToFirstDecode(TimeUnit.MILLISECONDS.toNanos(SystemClock.elapsedRealtime() - requestTime),
+        metering != null);
   }
 }
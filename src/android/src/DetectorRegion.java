@@ -0,0 +1,82 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.graphics.Rect;
+
+import com.google.mlkit.vision.barcode.Barcode;
+
+/**
+ * The shape of the detector region, shared by the analyzer that crops it out of
+ * the camera frames and the overlay that shows it, so both always agree.
+ *
+ * <p>
+ * Width and height are fractions of the shorter side of the upright frame or
+ * view and the region is centered. Without an explicit shape the region is the
+ * classic 'detectorSize' square, unless only linear formats are scanned: their
+ * bars only have to be crossed by the region, so it becomes a band a third as
+ * high as it is wide, and only a third of the pixels are converted and searched.
+ */
+final class DetectorRegion {
+
+  /** Height of the automatic band for linear formats, relative to its width. */
+  static final double BAND_ASPECT = 1 / 3.0;
+
+  private static final int LINEAR_FORMATS = Barcode.FORMAT_CODE_128 | Barcode.FORMAT_CODE_39
+      | Barcode.FORMAT_CODE_93 | Barcode.FORMAT_CODABAR | Barcode.FORMAT_EAN_13 | Barcode.FORMAT_EAN_8
+      | Barcode.FORMAT_ITF | Barcode.FORMAT_UPC_A | Barcode.FORMAT_UPC_E;
+
+  final double widthFraction;
+  final double heightFraction;
+  final boolean linearOnly;
+
+  private DetectorRegion(double widthFraction, double heightFraction, boolean linearOnly) {
+    this.widthFraction = widthFraction;
+    this.heightFraction = heightFraction;
+    this.linearOnly = linearOnly;
+  }
+
+  /**
+   * @param detectorFormats the formats as passed to the detector.
+   * @param detectorSize    side of the default square.
+   * @param detectorWidth   width of the region, 0 for the default shape.
+   * @param detectorHeight  height of the region, 0 for the default shape.
+   */
+  static DetectorRegion from(int detectorFormats, double detectorSize, double detectorWidth,
+      double detectorHeight) {
+    boolean linearOnly = isLinearOnly(detectorFormats);
+    if (detectorWidth > 0 && detectorWidth <= 1 && detectorHeight > 0 && detectorHeight <= 1) {
+      return new DetectorRegion(detectorWidth, detectorHeight, linearOnly);
+    }
+    if (linearOnly) {
+      return new DetectorRegion(detectorSize, detectorSize * BAND_ASPECT, true);
+    }
+    return new DetectorRegion(detectorSize, detectorSize, false);
+  }
+
+  /** Returns true if all given formats are linear (1D) ones. */
+  static boolean isLinearOnly(int detectorFormats) {
+    return detectorFormats != 0 && (detectorFormats & ~LINEAR_FORMATS) == 0;
+  }
+
+  /**
+   * Returns the share of the shorter frame side a barcode spans at most inside
+   * the region: the width for linear formats, read across the bars, otherwise
+   * the smaller of both sides.
+   */
+  double getBarcodeSpan() {
+    return linearOnly ? widthFraction : Math.min(widthFraction, heightFraction);
+  }
+
+  /**
+   * Computes the region on an upright frame or view of the given size.
+   */
+  Rect getRect(int width, int height) {
+    int shorter = Math.min(width, height);
+    int regionWidth = Math.min(width, (int) (widthFraction * shorter));
+    int regionHeight = Math.min(height, (int) (heightFraction * shorter));
+
+    int left = width / 2 - regionWidth / 2;
+    int top = height / 2 - regionHeight / 2;
+
+    return new Rect(left, top, left + regionWidth, top + regionHeight);
+  }
+}
@@ -0,0 +1,312 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.app.Activity;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+import android.util.Size;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.Camera;
+import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.Preview;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.camera.view.PreviewView;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.lifecycle.LifecycleRegistry;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.mlkit.vision.barcode.Barcode;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.AutoTorch;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.FrameScheduler;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.ScanStats;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.SharpnessGate;
+
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Scans inside the Cordova activity instead of launching {@link CaptureActivity}.
+ *
+ * <p>
+ * The camera preview is attached to the view hierarchy of the WebView, either
+ * behind a transparent WebView or above it, and the use cases are bound to a
+ * lifecycle that follows the pause and resume events of the Cordova activity.
+ * All methods have to be called on the main thread.
+ *
+ * <p>
+ * The page draws its own UI around the preview, so there is no overlay for
+ * 'showBarcodes', and results are streamed, so 'multiResult' does not apply.
+ * Both are rejected by {@link #getUnsupportedOption(JSONObject)}.
+ */
+class EmbeddedScanner implements LifecycleOwner {
+
+  private final LifecycleRegistry lifecycle = new LifecycleRegistry(this);
+  private final Activity activity;
+  private final View webView;
+  private final ScanSession.Listener listener;
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private PreviewView previewView;
+  private Drawable webViewBackground;
+  private boolean behindWebView;
+  private ProcessCameraProvider cameraProvider;
+  private Preview preview;
+  private ImageAnalysis imageAnalysis;
+  private BarcodeAnalyzer analyzer;
+  private RegionMetering metering;
+  private Camera camera;
+  private boolean paused;
+  private boolean stopped;
+  private long startTime;
+  private boolean firstDecodeRecorded;
+
+  EmbeddedScanner(Activity activity, View webView, ScanSession.Listener listener) {
+    this.activity = activity;
+    this.webView = webView;
+    this.listener = listener;
+    lifecycle.setCurrentState(Lifecycle.State.CREATED);
+  }
+
+  /**
+   * Returns the name of an option that is set but not supported by embedded
+   * scans, null if there is none.
+   */
+  static String getUnsupportedOption(JSONObject config) {
+    if (config.optBoolean("showBarcodes", false)) {
+      return "showBarcodes";
+    }
+    if (config.optBoolean("multiResult", false)) {
+      return "multiResult";
+    }
+    return null;
+  }
+
+  @NonNull
+  @Override
+  public Lifecycle getLifecycle() {
+    return lifecycle;
+  }
+
+  /**
+   * Attaches the preview and starts the camera.
+   *
+   * @param config the scan options passed by JavaScript. With 'behindWebView' the
+   *               preview is placed behind the WebView, which is made
+   *               transparent for that.
+   * @param region area of the preview in pixels, null to cover the WebView.
+   */
+  void start(final JSONObject config, Rect region) {
+    startTime = SystemClock.elapsedRealtimeNanos();
+    boolean rotateCamera = config.optBoolean("rotateCamera", false);
+    boolean behindWebView = config.optBoolean("behindWebView", false);
+    ViewGroup parent = (ViewGroup) webView.getParent();
+
+    previewView = new PreviewView(activity);
+    previewView.setPreferredImplementationMode(PreviewView.ImplementationMode.TEXTURE_VIEW);
+    previewView.setScaleX(rotateCamera ? -1F : 1F);
+    previewView.setScaleY(rotateCamera ? -1F : 1F);
+
+    this.behindWebView = behindWebView;
+    if (behindWebView) {
+      webViewBackground = webView.getBackground();
+      webView.setBackgroundColor(Color.TRANSPARENT);
+      parent.addView(previewView, 0, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+          ViewGroup.LayoutParams.MATCH_PARENT));
+    } else {
+      parent.addView(previewView, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+          ViewGroup.LayoutParams.MATCH_PARENT));
+    }
+    setRegion(region);
+
+    final ListenableFuture<ProcessCameraProvider> cameraProviderFuture = CameraResources
+        .getCameraProvider(activity);
+    cameraProviderFuture.addListener(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (!stopped) {
+            bind(cameraProviderFuture.get(), config);
+          }
+        } catch (ExecutionException | InterruptedException e) {
+          // No errors need to be handled for this Future.
+          // This should never be reached.
+        }
+      }
+    }, ContextCompat.getMainExecutor(activity));
+  }
+
+  private void bind(ProcessCameraProvider provider, JSONObject config) {
+    cameraProvider = provider;
+
+    preview = new Preview.Builder().build();
+    preview.setSurfaceProvider(previewView.createSurfaceProvider());
+
+    CameraSelector cameraSelector = new CameraSelector.Builder().requireLensFacing(CameraSelector.LENS_FACING_BACK)
+        .build();
+
+    int barcodeFormats = CameraResources.getDetectorFormats(config.optInt("barcodeFormats", 1234));
+    JSONObject resolution = config.optJSONObject("analysisResolution");
+    DetectorRegion region = DetectorRegion.from(barcodeFormats, config.optDouble("detectorSize", 0.5),
+        config.optDouble("detectorWidth", 0), config.optDouble("detectorHeight", 0));
+    Size analysisResolution = ResolutionSelector.select(activity, config.optInt("barcodeFormats", 1234),
+        region.getBarcodeSpan(), resolution != null ? resolution.optInt("width", 0) : 0,
+        resolution != null ? resolution.optInt("height", 0) : 0);
+
+    imageAnalysis = new ImageAnalysis.Builder().setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+        .setTargetResolution(analysisResolution).build();
+
+    analyzer = new BarcodeAnalyzer(CameraResources.acquireScanner(barcodeFormats),
+        config.optString("analysisMode", BarcodeAnalyzer.MODE_YUV), region,
+        config.optBoolean("rotateCamera", false), config.optInt("queueDepth", 1), new BarcodeAnalyzer.Listener() {
+          @Override
+          public void onBarcodesDetected(List<Barcode> barCodes, Rect detectorRect, int scale) {
+            if (stopped) {
+              return;
+            }
+            if (!firstDecodeRecorded) {
+              firstDecodeRecorded = true;
+              ScanStats.recordTimeToFirstDecode(SystemClock.elapsedRealtimeNanos() - startTime, metering != null);
+            }
+            for (Barcode barcode : barCodes) {
+              ScanResult result = ScanResult.from(barcode, detectorRect, scale);
+              if (!ScanSession.getDuplicateCache().isDuplicate(result.format, result.value)) {
+                listener.onBarcodeRead(result);
+              }
+            }
+          }
+        });
+    int[] pyramidScales = MLKitBarcodeScanner.optIntArray(config, "pyramidScales");
+    if (pyramidScales.length > 0) {
+      analyzer.setPyramid(pyramidScales, config.optInt("pyramidMisses", 3));
+    }
+    if (config.optBoolean("regionMetering", true)) {
+      metering = new RegionMetering(previewView, cameraSelector, region);
+      analyzer.setMissCallback(config.optInt("meteringMisses", 30), new Runnable() {
+        @Override
+        public void run() {
+          if (!stopped) {
+            metering.meterRegion();
+          }
+        }
+      });
+    }
+    if (config.optBoolean("autoTorch", false)) {
+      analyzer.setAutoTorch(new AutoTorch(new AutoTorch.Listener() {
+        @Override
+        public void onTorchChanged(final boolean on) {
+          activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+              if (!stopped && camera != null) {
+                camera.getCameraControl().enableTorch(on);
+              }
+            }
+          });
+        }
+      }));
+    }
+    if (config.optBoolean("tracking", false)) {
+      analyzer.setTracking(config.optInt("trackingMisses", 5));
+    }
+    if (config.optBoolean("sharpnessGate", true)) {
+      analyzer.setSharpnessGate(new SharpnessGate());
+    }
+    if (config.optBoolean("adaptiveScheduling", true)) {
+      analyzer.setFrameScheduler(new FrameScheduler(activity));
+    }
+    imageAnalysis.setAnalyzer(executor, analyzer);
+    ScanSession.setAnalyzer(analyzer);
+
+    camera = cameraProvider.bindToLifecycle(this, cameraSelector, imageAnalysis, preview);
+    if (metering != null) {
+      metering.setCamera(camera);
+    }
+    updateState();
+  }
+
+  /** Moves and resizes the preview, null to cover the WebView. */
+  void setRegion(Rect region) {
+    if (previewView == null) {
+      return;
+    }
+    ViewGroup.LayoutParams params = previewView.getLayoutParams();
+    if (region == null) {
+      params.width = ViewGroup.LayoutParams.MATCH_PARENT;
+      params.height = ViewGroup.LayoutParams.MATCH_PARENT;
+      previewView.setX(webView.getX());
+      previewView.setY(webView.getY());
+    } else {
+      params.width = region.width();
+      params.height = region.height();
+      previewView.setX(webView.getX() + region.left);
+      previewView.setY(webView.getY() + region.top);
+    }
+    previewView.setLayoutParams(params);
+  }
+
+  /** Shows or hides the preview. The camera is paused while it is hidden. */
+  void setVisible(boolean visible) {
+    if (previewView == null) {
+      return;
+    }
+    previewView.setVisibility(visible ? View.VISIBLE : View.GONE);
+    updateState();
+  }
+
+  void onPause() {
+    paused = true;
+    updateState();
+  }
+
+  void onResume() {
+    paused = false;
+    updateState();
+  }
+
+  /** Stops the camera and removes the preview. The scanner cannot be restarted. */
+  void stop() {
+    stopped = true;
+    if (cameraProvider != null) {
+      cameraProvider.unbind(preview, imageAnalysis);
+    }
+    lifecycle.setCurrentState(Lifecycle.State.DESTROYED);
+    executor.shutdown();
+    if (analyzer != null) {
+      ScanSession.clearAnalyzer(analyzer);
+      analyzer.release();
+    }
+
+    if (previewView != null) {
+      ((ViewGroup) previewView.getParent()).removeView(previewView);
+      previewView = null;
+    }
+    if (behindWebView) {
+      webView.setBackground(webViewBackground);
+      webViewBackground = null;
+    }
+  }
+
+  /**
+   * The camera runs while the Cordova activity is resumed and the preview is
+   * visible.
+   */
+  private void updateState() {
+    if (stopped) {
+      return;
+    }
+    boolean visible = previewView != null && previewView.getVisibility() == View.VISIBLE;
+    lifecycle.setCurrentState(!paused && visible ? Lifecycle.State.RESUMED : Lifecycle.State.CREATED);
+  }
+}
@@ -0,0 +1,126 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.net.Uri;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scans a list of images in parallel.
+ *
+ * <p>
+ * The images are decoded on one worker per CPU core. Before decoding, a worker
+ * reserves the memory the decoded bitmap will take from a shared budget and
+ * waits while the budget is used up, so many large photos cannot exhaust the
+ * heap. Results are reported per image as soon as it is done, in the order the
+ * images complete.
+ */
+class ImageBatch {
+
+  /** Receives the results. Called on the worker threads. */
+  interface Listener {
+    /**
+     * @param results the barcodes found, null if the image could not be scanned.
+     * @param error   the reason the image could not be scanned, otherwise null.
+     */
+    void onImageScanned(int index, String image, List<ScanResult> results, String error);
+
+    /** Called once after the last image or after {@link #cancel()}. */
+    void onFinished(boolean cancelled);
+  }
+
+  private static final int KILOBYTE = 1024;
+
+  private final ImageScanner imageScanner;
+  private final Listener listener;
+  private final ThreadPoolExecutor executor;
+  private final Semaphore memory;
+  private final int memoryPermits;
+
+  private final AtomicInteger remaining = new AtomicInteger();
+  private final AtomicBoolean finished = new AtomicBoolean();
+  private volatile boolean cancelled;
+
+  /**
+   * @param maxMemory bytes the decoded bitmaps may take at once.
+   */
+  ImageBatch(ImageScanner imageScanner, long maxMemory, Listener listener) {
+    this.imageScanner = imageScanner;
+    this.listener = listener;
+
+    int workers = Math.max(1, Runtime.getRuntime().availableProcessors());
+    executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    memoryPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxMemory / KILOBYTE));
+    memory = new Semaphore(memoryPermits);
+  }
+
+  void start(final List<String> images) {
+    if (images.isEmpty()) {
+      finish();
+      return;
+    }
+
+    remaining.set(images.size());
+    for (int i = 0; i < images.size(); i++) {
+      final int index = i;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          scan(index, images.get(index));
+        }
+      });
+    }
+  }
+
+  /** Stops the batch. Images that are being decoded are not reported anymore. */
+  void cancel() {
+    cancelled = true;
+    executor.shutdownNow();
+    finish();
+  }
+
+  private void scan(int index, String image) {
+    if (cancelled) {
+      return;
+    }
+
+    List<ScanResult> results = null;
+    String error = null;
+    try {
+      Uri uri = ImageScanner.toUri(image);
+      // An image larger than the whole budget still gets scanned, alone.
+      int permits = (int) Math.min(memoryPermits, Math.max(1, imageScanner.getDecodedSize(uri) / KILOBYTE));
+      memory.acquire(permits);
+      try {
+        results = imageScanner.scan(uri);
+      } finally {
+        memory.release(permits);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (Exception e) {
+      error = e.toString();
+    }
+
+    if (cancelled) {
+      return;
+    }
+    listener.onImageScanned(index, image, results, error);
+    if (remaining.decrementAndGet() == 0) {
+      finish();
+    }
+  }
+
+  private void finish() {
+    if (finished.compareAndSet(false, true)) {
+      executor.shutdown();
+      listener.onFinished(cancelled);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.barcode.Barcode;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.common.InputImage;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.BitmapUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads barcodes from image files instead of the camera.
+ *
+ * <p>
+ * Photos are decoded at the lowest resolution at which the smallest expected
+ * barcode is still readable, instead of at full size. The EXIF orientation is
+ * handed to ML Kit as rotation, the pixels are not rotated.
+ */
+class ImageScanner {
+
+  /** Pixels the smallest barcode should span along its longer side. */
+  static final int MIN_BARCODE_PIXELS = 300;
+
+  private final ContentResolver contentResolver;
+  private final BarcodeScanner scanner;
+  private final double barcodeFraction;
+
+  /**
+   * @param barcodeFraction fraction of the longer image side the smallest
+   *                        barcode covers at least.
+   */
+  ImageScanner(ContentResolver contentResolver, BarcodeScanner scanner, double barcodeFraction) {
+    this.contentResolver = contentResolver;
+    this.scanner = scanner;
+    this.barcodeFraction = barcodeFraction > 0 && barcodeFraction <= 1 ? barcodeFraction : 1;
+  }
+
+  /** Accepts content and file URIs as well as plain file paths. */
+  static Uri toUri(String image) {
+    if (image.startsWith("/")) {
+      return Uri.fromFile(new File(image));
+    }
+    return Uri.parse(image);
+  }
+
+  /**
+   * Returns the bytes the decoded copy of an image takes, 0 if the image cannot
+   * be read.
+   */
+  long getDecodedSize(Uri uri) throws IOException {
+    int[] size = BitmapUtils.getImageSize(contentResolver, uri);
+    if (size == null) {
+      return 0;
+    }
+    int sampleSize = BitmapUtils.getSampleSize(size[0], size[1], barcodeFraction, MIN_BARCODE_PIXELS);
+    return 4L * ((size[0] + sampleSize - 1) / sampleSize) * ((size[1] + sampleSize - 1) / sampleSize);
+  }
+
+  /**
+   * Decodes the image and returns all barcodes found in it, with bounding boxes
+   * in pixels of the upright image at full size. Blocks, must not be called on
+   * the main thread.
+   */
+  List<ScanResult> scan(Uri uri) throws IOException, ExecutionException, InterruptedException {
+    int[] size = BitmapUtils.getImageSize(contentResolver, uri);
+    if (size == null) {
+      throw new IOException("Cannot read image " + uri);
+    }
+
+    int sampleSize = BitmapUtils.getSampleSize(size[0], size[1], barcodeFraction, MIN_BARCODE_PIXELS);
+    Bitmap bitmap = BitmapUtils.decodeSampledBitmap(contentResolver, uri, sampleSize);
+    if (bitmap == null) {
+      throw new IOException("Cannot decode image " + uri);
+    }
+
+    List<Barcode> barcodes;
+    try {
+      int rotation = BitmapUtils.getExifRotationDegrees(contentResolver, uri);
+      barcodes = Tasks.await(scanner.process(InputImage.fromBitmap(bitmap, rotation)));
+    } finally {
+      bitmap.recycle();
+    }
+
+    List<ScanResult> results = new ArrayList<>(barcodes.size());
+    for (Barcode barcode : barcodes) {
+      results.add(ScanResult.from(barcode, null, sampleSize));
+    }
+    return results;
+  }
+}
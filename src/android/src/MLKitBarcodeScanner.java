@@ -1,5 +1,6 @@
 package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
 
+import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.Context;
@@ -7,15 +8,23 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.AssetFileDescriptor;
-import android.hardware.camera2.CameraManager;
+import android.graphics.Rect;
 import android.media.MediaPlayer;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.util.Log;
+import android.util.SparseLongArray;
 
 import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
+import com.google.mlkit.vision.barcode.BarcodeScanning;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.DuplicateCache;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.FrameBufferPool;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.ScanStats;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
@@ -27,6 +36,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * This class echoes a string called from JavaScript.
@@ -34,11 +46,22 @@ import java.io.IOException;
 public class MLKitBarcodeScanner extends CordovaPlugin {
 
   private static final int RC_BARCODE_CAPTURE = 9001;
+  private static final int RC_EMBEDDED_CAMERA_PERM = 9002;
+  // Time repeated reads are suppressed in continuous and embedded scans that do
+  // not set duplicateTtl, so a label in front of the camera is reported once.
+  private static final long CONTINUOUS_DUPLICATE_TTL = 2000;
   private CallbackContext _CallbackContext;
   private Boolean _BeepOnSuccess;
   private Boolean _VibrateOnSuccess;
   private MediaPlayer _MediaPlayer;
   private Vibrator _Vibrator;
+  private boolean _ContinuousScan;
+  private boolean _StopRequested;
+  private ResultBatcher _ResultBatcher;
+  private EmbeddedScanner _EmbeddedScanner;
+  private JSONObject _PendingEmbeddedConfig;
+  private CallbackContext _PendingEmbeddedCallback;
+  private ImageBatch _ImageBatch;
 
   public void initialize(CordovaInterface cordova, CordovaWebView webView) {
     super.initialize(cordova, webView);
@@ -56,24 +79,76 @@ public class MLKitBarcodeScanner extends CordovaPlugin {
     } catch (IOException e) {
       e.printStackTrace();
     }
+
+    ScanStats.setTracing(preferences.getBoolean("MLKitBarcodeScannerTrace", false));
+
+    if (preferences.getBoolean("MLKitBarcodeScannerPrewarm", false)) {
+      // Resolve the camera provider and load the model while the app starts up, so
+      // the first scan does not have to. Warming a client for other formats than
+      // the first scan asks for would be wasted, so this defaults to the formats
+      // JavaScript sends without barcodeFormats.
+      final Context appContext = context.getApplicationContext();
+      final int prewarmFormats = preferences.getInteger("MLKitBarcodeScannerPrewarmFormats",
+          CameraResources.ALL_FORMATS);
+      cordova.getThreadPool().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            CameraResources.prepare(appContext, CameraResources.getDetectorFormats(prewarmFormats));
+          } catch (Exception e) {
+            Log.e("MLKitBarcodeScanner", "Prewarm failed", e);
+          }
+        }
+      });
+    }
   }
 
   @Override
   public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
-    Activity activity = cordova.getActivity();
-    Boolean hasCamera = activity.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_ANY);
-    CameraManager cameraManager = (CameraManager) activity.getSystemService(Context.CAMERA_SERVICE);
+    if (action.equals("stopScan")) {
+      // Handled before anything else, the callback of the running scan must not be
+      // replaced.
+      stopScan(callbackContext);
+      return true;
+    }
 
-    _CallbackContext = callbackContext;
+    if (action.equals("stopEmbeddedScan") || action.equals("setEmbeddedScanVisible")
+        || action.equals("setEmbeddedScanRegion")) {
+      // Like stopScan, these must not replace the callback of the running scan.
+      controlEmbeddedScan(action, args, callbackContext);
+      return true;
+    }
 
-    int numberOfCameras = 0;
+    if (action.equals("prepare")) {
+      prepare(args.optJSONObject(0), callbackContext);
+      return true;
+    }
 
-    try {
-      numberOfCameras = cameraManager.getCameraIdList().length;
-    } catch (Exception e) {
-      e.printStackTrace();
+    if (action.equals("scanImage")) {
+      scanImage(args.getString(0), args.optJSONObject(1), callbackContext);
+      return true;
     }
 
+    if (action.equals("scanImages")) {
+      scanImages(args.getJSONArray(0), args.optJSONObject(1), callbackContext);
+      return true;
+    }
+
+    if (action.equals("cancelImageScan")) {
+      cancelImageScan(callbackContext);
+      return true;
+    }
+
+    if (action.equals("getScanStats")) {
+      getScanStats(args.optBoolean(0, false), callbackContext);
+      return true;
+    }
+
+    Activity activity = cordova.getActivity();
+    Boolean hasCamera = activity.getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_ANY);
+
+    int numberOfCameras = CameraResources.getNumberOfCameras(activity);
+
     if (!hasCamera || numberOfCameras == 0) {
       AlertDialog alertDialog = new AlertDialog.Builder(activity).create();
       alertDialog.setMessage(activity.getString(activity.getResources()
@@ -90,52 +165,284 @@ public class MLKitBarcodeScanner extends CordovaPlugin {
       return false;
     }
 
-    if (action.equals("startScan")) {
+    if (action.equals("startEmbeddedScan")) {
+      // The callback of a running embedded scan must not be replaced, it is taken
+      // over once the scan starts.
+      JSONObject config = args.getJSONObject(0);
+      String unsupported = EmbeddedScanner.getUnsupportedOption(config);
+      if (unsupported != null) {
+        sendError(callbackContext, "UNSUPPORTED_OPTION: " + unsupported);
+      } else if (cordova.hasPermission(Manifest.permission.CAMERA)) {
+        startEmbeddedScan(config, callbackContext);
+      } else {
+        _PendingEmbeddedConfig = config;
+        _PendingEmbeddedCallback = callbackContext;
+        cordova.requestPermission(this, RC_EMBEDDED_CAMERA_PERM, Manifest.permission.CAMERA);
+      }
+      return true;
+    }
+
+    _CallbackContext = callbackContext;
+
+    if (action.equals("startScan") || action.equals("startContinuousScan")) {
       class OneShotTask implements Runnable {
         private final Context context;
         private final JSONArray args;
+        private final boolean continuous;
 
-        private OneShotTask(Context ctx, JSONArray as) {
+        private OneShotTask(Context ctx, JSONArray as, boolean cont) {
           context = ctx;
           args = as;
+          continuous = cont;
         }
 
         public void run() {
           try {
-            openNewActivity(context, args);
+            openNewActivity(context, args, continuous);
           } catch (JSONException e) {
             _CallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, e.toString()));
           }
         }
       }
-      Thread t = new Thread(new OneShotTask(cordova.getContext(), args));
-      t.start();
+      cordova.getThreadPool()
+          .execute(new OneShotTask(cordova.getContext(), args, action.equals("startContinuousScan")));
       return true;
     }
     return false;
   }
 
-  private void openNewActivity(Context context, JSONArray args) throws JSONException {
+  private void openNewActivity(Context context, JSONArray args, boolean continuous) throws JSONException {
     JSONObject config = args.getJSONObject(0);
     Intent intent = new Intent(context, CaptureActivity.class);
-    intent.putExtra("BarcodeFormats", config.optInt("barcodeFormats", 1234));
+    int barcodeFormats = config.optInt("barcodeFormats", 1234);
+    intent.putExtra("RequestTime", SystemClock.elapsedRealtime());
+    intent.putExtra("Prewarmed", CameraResources.isPrepared(CameraResources.getDetectorFormats(barcodeFormats)));
+    intent.putExtra("ContinuousScan", continuous);
+    intent.putExtra("BarcodeFormats", barcodeFormats);
     intent.putExtra("DetectorSize", config.optDouble("detectorSize", 0.5));
+    intent.putExtra("DetectorWidth", config.optDouble("detectorWidth", 0));
+    intent.putExtra("DetectorHeight", config.optDouble("detectorHeight", 0));
     intent.putExtra("RotateCamera", config.optBoolean("rotateCamera", false));
+    intent.putExtra("AnalysisMode", config.optString("analysisMode", BarcodeAnalyzer.MODE_YUV));
+    intent.putExtra("AdaptiveScheduling", config.optBoolean("adaptiveScheduling", true));
+    intent.putExtra("QueueDepth", config.optInt("queueDepth", 1));
+    intent.putExtra("SharpnessGate", config.optBoolean("sharpnessGate", true));
+    intent.putExtra("AutoTorch", config.optBoolean("autoTorch", false));
+    intent.putExtra("RegionMetering", config.optBoolean("regionMetering", true));
+    intent.putExtra("MeteringMisses", config.optInt("meteringMisses", 30));
+    intent.putExtra("ShowBarcodes", config.optBoolean("showBarcodes", false));
+    intent.putExtra("Tracking", config.optBoolean("tracking", false));
+    intent.putExtra("TrackingMisses", config.optInt("trackingMisses", 5));
+    intent.putExtra("PyramidScales", optIntArray(config, "pyramidScales"));
+    JSONObject resolution = config.optJSONObject("analysisResolution");
+    if (resolution != null) {
+      intent.putExtra("AnalysisWidth", resolution.optInt("width", 0));
+      intent.putExtra("AnalysisHeight", resolution.optInt("height", 0));
+    }
+    intent.putExtra("PyramidMisses", config.optInt("pyramidMisses", 3));
+    intent.putExtra("MultiResult", config.optBoolean("multiResult", false));
+    intent.putExtra("MinResults", config.optInt("minResults", 1));
 
-    _BeepOnSuccess = config.optBoolean("beepOnSuccess", false);
-    _VibrateOnSuccess = config.optBoolean("vibrateOnSuccess", false);
+    configureSession(config, continuous);
+    ScanSession.setListener(continuous ? new ScanSession.Listener() {
+      @Override
+      public void onBarcodeRead(ScanResult result) {
+        sendContinuousResult(result);
+      }
+    } : null);
 
     this.cordova.setActivityResultCallback(this);
     this.cordova.startActivityForResult(this, intent, RC_BARCODE_CAPTURE);
   }
 
+  /**
+   * Applies the options that are shared by all kinds of scans.
+   */
+  private void configureSession(JSONObject config, boolean continuous) {
+    _BeepOnSuccess = config.optBoolean("beepOnSuccess", false);
+    _VibrateOnSuccess = config.optBoolean("vibrateOnSuccess", false);
+
+    JSONObject formatTtls = config.optJSONObject("duplicateTtlByFormat");
+    SparseLongArray duplicateTtls = new SparseLongArray();
+    if (formatTtls != null) {
+      Iterator<String> formats = formatTtls.keys();
+      while (formats.hasNext()) {
+        String format = formats.next();
+        duplicateTtls.put(Integer.parseInt(format), formatTtls.optLong(format));
+      }
+    }
+    long duplicateTtl = config.optLong("duplicateTtl", continuous ? CONTINUOUS_DUPLICATE_TTL : 0);
+    ScanSession.getDuplicateCache().configure(duplicateTtl, duplicateTtls,
+        config.optInt("duplicateCacheSize", 64));
+
+    long batchWindow = config.optLong("batchWindow", 0);
+    int batchSize = config.optInt("batchSize", 0);
+    _ResultBatcher = continuous && ResultBatcher.isEnabled(batchWindow, batchSize)
+        ? new ResultBatcher(batchWindow, batchSize, new ResultBatcher.Sink() {
+          @Override
+          public void onBatch(JSONArray results) {
+            sendKeepCallbackResult(results);
+          }
+        })
+        : null;
+
+    _ContinuousScan = continuous;
+    _StopRequested = false;
+  }
+
+  /**
+   * Starts scanning inside the Cordova activity. Results are streamed like the
+   * ones of a continuous scan. Whether a scan is running is checked on the UI
+   * thread, where the scanner is created and stopped, so two requests cannot
+   * both start one.
+   */
+  private void startEmbeddedScan(final JSONObject config, final CallbackContext callbackContext) {
+    final Activity activity = cordova.getActivity();
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (_EmbeddedScanner != null) {
+          sendError(callbackContext, "SCANNER_OPEN");
+          return;
+        }
+        _CallbackContext = callbackContext;
+        configureSession(config, true);
+        _EmbeddedScanner = new EmbeddedScanner(activity, webView.getView(), new ScanSession.Listener() {
+          @Override
+          public void onBarcodeRead(ScanResult result) {
+            sendContinuousResult(result);
+          }
+        });
+        _EmbeddedScanner.start(config, getRegion(config.optJSONObject("region")));
+      }
+    });
+  }
+
+  private void controlEmbeddedScan(final String action, final JSONArray args, final CallbackContext callbackContext) {
+    cordova.getActivity().runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        if (_EmbeddedScanner == null) {
+          callbackContext.error("NO_SCAN_RUNNING");
+          return;
+        }
+
+        if (action.equals("stopEmbeddedScan")) {
+          _EmbeddedScanner.stop();
+          _EmbeddedScanner = null;
+          _StopRequested = true;
+          finishContinuousScan(null);
+        } else if (action.equals("setEmbeddedScanVisible")) {
+          _EmbeddedScanner.setVisible(args.optBoolean(0, true));
+        } else {
+          _EmbeddedScanner.setRegion(getRegion(args.optJSONObject(0)));
+        }
+        callbackContext.success();
+      }
+    });
+  }
+
+  /**
+   * Reads an array of numbers from the options, an empty array if it is missing.
+   */
+  static int[] optIntArray(JSONObject config, String name) {
+    JSONArray array = config.optJSONArray(name);
+    if (array == null) {
+      return new int[0];
+    }
+    int[] result = new int[array.length()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = array.optInt(i);
+    }
+    return result;
+  }
+
+  /**
+   * Converts a region given in CSS pixels of the WebView to device pixels.
+   */
+  private Rect getRegion(JSONObject region) {
+    if (region == null) {
+      return null;
+    }
+    float density = cordova.getActivity().getResources().getDisplayMetrics().density;
+    int left = Math.round((float) region.optDouble("x", 0) * density);
+    int top = Math.round((float) region.optDouble("y", 0) * density);
+    int width = Math.round((float) region.optDouble("width", 0) * density);
+    int height = Math.round((float) region.optDouble("height", 0) * density);
+    return new Rect(left, top, left + width, top + height);
+  }
+
+  @Override
+  public void onRequestPermissionResult(int requestCode, String[] permissions, int[] grantResults)
+      throws JSONException {
+    if (requestCode != RC_EMBEDDED_CAMERA_PERM || _PendingEmbeddedConfig == null) {
+      return;
+    }
+    JSONObject config = _PendingEmbeddedConfig;
+    CallbackContext callbackContext = _PendingEmbeddedCallback;
+    _PendingEmbeddedConfig = null;
+    _PendingEmbeddedCallback = null;
+
+    if (grantResults.length != 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+      startEmbeddedScan(config, callbackContext);
+    } else {
+      sendError(callbackContext, "NO_CAMERA_PERMISSION");
+    }
+  }
+
+  @Override
+  public void onPause(boolean multitasking) {
+    super.onPause(multitasking);
+    if (_EmbeddedScanner != null) {
+      _EmbeddedScanner.onPause();
+    }
+  }
+
+  @Override
+  public void onResume(boolean multitasking) {
+    super.onResume(multitasking);
+    if (_EmbeddedScanner != null) {
+      _EmbeddedScanner.onResume();
+    }
+  }
+
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    if (_EmbeddedScanner != null) {
+      _EmbeddedScanner.stop();
+      _EmbeddedScanner = null;
+    }
+    ImageBatch batch;
+    synchronized (this) {
+      batch = _ImageBatch;
+    }
+    if (batch != null) {
+      batch.cancel();
+    }
+  }
+
   @Override
   public void onActivityResult(int requestCode, int resultCode, Intent data) {
     super.onActivityResult(requestCode, resultCode, data);
 
-    if (requestCode == RC_BARCODE_CAPTURE) {
+    if (requestCode == RC_BARCODE_CAPTURE && _ContinuousScan) {
+      finishContinuousScan(data != null ? data.getStringExtra("err") : null);
+    } else if (requestCode == RC_BARCODE_CAPTURE) {
       if (resultCode == CommonStatusCodes.SUCCESS) {
-        if (data != null) {
+        List<ScanResult> scanResults = data != null ? ScanResult.fromExtras(data) : null;
+        if (scanResults != null) {
+          // All barcodes of a multi result scan are returned in one result.
+          JSONArray results = new JSONArray();
+          for (ScanResult scanResult : scanResults) {
+            results.put(scanResult.toJSON());
+          }
+          _CallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, results));
+
+          notifySuccess();
+
+          Log.d("MLKitBarcodeScanner", "Barcodes read: " + scanResults.size());
+        } else if (data != null) {
           Integer barcodeFormat = data.getIntExtra(CaptureActivity.BarcodeFormat, 0);
           Integer barcodeType = data.getIntExtra(CaptureActivity.BarcodeType, 0);
           String barcodeValue = data.getStringExtra(CaptureActivity.BarcodeValue);
@@ -145,29 +452,269 @@ public class MLKitBarcodeScanner extends CordovaPlugin {
           result.put(barcodeType);
           _CallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
 
-          if (_BeepOnSuccess) {
-            _MediaPlayer.start();
+          notifySuccess();
+
+          Log.d("MLKitBarcodeScanner", "Barcode read: " + barcodeValue);
+        }
+      } else {
+        // stopScan finishes the scanner without a result.
+        String err = data != null ? data.getStringExtra("err") : null;
+        sendError(err != null ? err : _StopRequested ? "SCAN_STOPPED" : "USER_CANCELLED");
+      }
+    }
+  }
+
+  /**
+   * Ends the stream of a continuous or embedded scan. A scan only ends by a stop
+   * request or by the user leaving the scanner, both are reported as the final
+   * result of the stream.
+   */
+  private void finishContinuousScan(String err) {
+    ScanSession.setListener(null);
+    _ContinuousScan = false;
+    if (_ResultBatcher != null) {
+      _ResultBatcher.flush();
+      _ResultBatcher = null;
+    }
+
+    sendError(err != null ? err : _StopRequested ? "SCAN_STOPPED" : "USER_CANCELLED");
+  }
+
+  private void sendError(String err) {
+    sendError(_CallbackContext, err);
+  }
+
+  private static void sendError(CallbackContext callbackContext, String err) {
+    JSONArray result = new JSONArray();
+    result.put(err);
+    result.put("");
+    result.put("");
+    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, result));
+  }
+
+  /**
+   * Resolves the camera provider and the ML Kit client ahead of the first scan
+   * and reports how long each step took.
+   */
+  private void prepare(final JSONObject config, final CallbackContext callbackContext) {
+    final Context context = cordova.getContext().getApplicationContext();
+    final int barcodeFormats = config != null ? config.optInt("barcodeFormats", 1234) : 1234;
+
+    cordova.getThreadPool().execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          JSONObject timings = CameraResources.prepare(context, CameraResources.getDetectorFormats(barcodeFormats));
+          timings.put("timeToFirstFrame", CameraResources.getTimeToFirstFrame());
+          callbackContext.success(timings);
+        } catch (Exception e) {
+          callbackContext.error(e.toString());
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads all barcodes in an image file and sends them as an array of results.
+   */
+  private void scanImage(final String image, JSONObject config, final CallbackContext callbackContext) {
+    final Context context = cordova.getContext();
+    final int barcodeFormats = config != null ? config.optInt("barcodeFormats", 1234) : 1234;
+    final double targetBarcodeSize = config != null ? config.optDouble("targetBarcodeSize", 0.2) : 0.2;
+
+    cordova.getThreadPool().execute(new Runnable() {
+      @Override
+      public void run() {
+        BarcodeScanner scanner = BarcodeScanning.getClient(new BarcodeScannerOptions.Builder()
+            .setBarcodeFormats(CameraResources.getDetectorFormats(barcodeFormats)).build());
+        try {
+          List<ScanResult> results = new ImageScanner(context.getContentResolver(), scanner, targetBarcodeSize)
+              .scan(ImageScanner.toUri(image));
+          JSONArray data = new JSONArray();
+          for (ScanResult result : results) {
+            data.put(result.toJSON());
           }
+          callbackContext.success(data);
+        } catch (Exception e) {
+          callbackContext.error(e.toString());
+        } finally {
+          scanner.close();
+        }
+      }
+    });
+  }
 
-          if (_VibrateOnSuccess) {
-            Integer duration = 200;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-              _Vibrator.vibrate(VibrationEffect.createOneShot(duration, VibrationEffect.DEFAULT_AMPLITUDE));
+  /**
+   * Scans a list of images in parallel. Every image is reported as soon as it is
+   * done, keeping the callback alive, and a last message tells that the batch
+   * finished or was cancelled.
+   */
+  private void scanImages(JSONArray images, JSONObject config, final CallbackContext callbackContext)
+      throws JSONException {
+    ImageBatch batch;
+    synchronized (this) {
+      if (_ImageBatch != null) {
+        callbackContext.error("BATCH_RUNNING");
+        return;
+      }
+
+      int barcodeFormats = config != null ? config.optInt("barcodeFormats", 1234) : 1234;
+      double targetBarcodeSize = config != null ? config.optDouble("targetBarcodeSize", 0.2) : 0.2;
+      long maxMemory = config != null ? config.optLong("maxDecodedMemory", 0) : 0;
+      if (maxMemory <= 0) {
+        maxMemory = Runtime.getRuntime().maxMemory() / 4;
+      }
+
+      final BarcodeScanner scanner = BarcodeScanning.getClient(new BarcodeScannerOptions.Builder()
+          .setBarcodeFormats(CameraResources.getDetectorFormats(barcodeFormats)).build());
+      ImageScanner imageScanner = new ImageScanner(cordova.getContext().getContentResolver(), scanner,
+          targetBarcodeSize);
+
+      _ImageBatch = new ImageBatch(imageScanner, maxMemory, new ImageBatch.Listener() {
+        @Override
+        public void onImageScanned(int index, String image, List<ScanResult> results, String error) {
+          try {
+            JSONObject message = new JSONObject();
+            message.put("index", index);
+            message.put("image", image);
+            if (results != null) {
+              JSONArray data = new JSONArray();
+              for (ScanResult result : results) {
+                data.put(result.toJSON());
+              }
+              message.put("results", data);
             } else {
-              // deprecated in API 26 aka Oreo
-              _Vibrator.vibrate(duration);
+              message.put("error", error);
             }
+            PluginResult result = new PluginResult(PluginResult.Status.OK, message);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+          } catch (JSONException e) {
+            Log.e("MLKitBarcodeScanner", "Cannot send image result", e);
           }
+        }
 
-          Log.d("MLKitBarcodeScanner", "Barcode read: " + barcodeValue);
+        @Override
+        public void onFinished(boolean cancelled) {
+          synchronized (MLKitBarcodeScanner.this) {
+            _ImageBatch = null;
+          }
+          scanner.close();
+          try {
+            JSONObject message = new JSONObject();
+            message.put("finished", true);
+            message.put("cancelled", cancelled);
+            callbackContext.success(message);
+          } catch (JSONException e) {
+            callbackContext.error(e.toString());
+          }
         }
+      });
+      batch = _ImageBatch;
+    }
+
+    List<String> paths = new ArrayList<>(images.length());
+    for (int i = 0; i < images.length(); i++) {
+      paths.add(images.getString(i));
+    }
+    batch.start(paths);
+  }
+
+  private void cancelImageScan(CallbackContext callbackContext) {
+    ImageBatch batch;
+    synchronized (this) {
+      batch = _ImageBatch;
+    }
+    if (batch == null) {
+      callbackContext.error("NO_SCAN_RUNNING");
+      return;
+    }
+    batch.cancel();
+    callbackContext.success();
+  }
+
+  /**
+   * Sends the latency histograms and frame counters, together with the state of
+   * the running scan's pipeline and buffer pool, the duplicate cache and the
+   * last time-to-first-frame.
+   *
+   * @param reset true to start the histograms and counters over afterwards.
+   */
+  private void getScanStats(boolean reset, CallbackContext callbackContext) throws JSONException {
+    JSONObject stats = ScanStats.toJSON();
+
+    BarcodeAnalyzer analyzer = ScanSession.getAnalyzer();
+    if (analyzer != null) {
+      stats.put("pipeline", analyzer.getPipelineStats());
+
+      FrameBufferPool pool = analyzer.getFramePool();
+      JSONObject framePool = new JSONObject();
+      framePool.put("bufferAllocations", pool.getBufferAllocations());
+      framePool.put("bitmapAllocations", pool.getBitmapAllocations());
+      framePool.put("reuses", pool.getReuses());
+      framePool.put("evictions", pool.getEvictions());
+      stats.put("framePool", framePool);
+    }
+
+    DuplicateCache duplicateCache = ScanSession.getDuplicateCache();
+    JSONObject duplicates = new JSONObject();
+    duplicates.put("hits", duplicateCache.getHits());
+    duplicates.put("misses", duplicateCache.getMisses());
+    stats.put("duplicateCache", duplicates);
+    stats.put("timeToFirstFrame", CameraResources.getTimeToFirstFrame());
+
+    if (reset) {
+      ScanStats.reset();
+    }
+    callbackContext.success(stats);
+  }
+
+  private void stopScan(CallbackContext callbackContext) {
+    _StopRequested = true;
+    if (ScanSession.stop()) {
+      callbackContext.success();
+    } else {
+      callbackContext.error("NO_SCAN_RUNNING");
+    }
+  }
+
+  /**
+   * Sends a barcode of a continuous scan, keeping the callback alive for the
+   * next ones. With batching enabled the barcode is queued and sent together with
+   * the other barcodes of its batch.
+   */
+  private void sendContinuousResult(ScanResult scanResult) {
+    JSONArray result = scanResult.toJSON();
+
+    if (_ResultBatcher != null) {
+      _ResultBatcher.add(result);
+    } else {
+      sendKeepCallbackResult(result);
+    }
+
+    notifySuccess();
+
+    Log.d("MLKitBarcodeScanner", "Barcode read: " + scanResult.value);
+  }
+
+  private void sendKeepCallbackResult(JSONArray result) {
+    PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, result);
+    pluginResult.setKeepCallback(true);
+    _CallbackContext.sendPluginResult(pluginResult);
+  }
+
+  private void notifySuccess() {
+    if (_BeepOnSuccess) {
+      _MediaPlayer.start();
+    }
+
+    if (_VibrateOnSuccess) {
+      Integer duration = 200;
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+        _Vibrator.vibrate(VibrationEffect.createOneShot(duration, VibrationEffect.DEFAULT_AMPLITUDE));
       } else {
-        String err = data.getStringExtra("err");
-        JSONArray result = new JSONArray();
-        result.put(err);
-        result.put("");
-        result.put("");
-        _CallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, result));
+        // deprecated in API 26 aka Oreo
+        _Vibrator.vibrate(duration);
       }
     }
   }
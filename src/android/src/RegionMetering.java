@@ -0,0 +1,85 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.graphics.Rect;
+
+import androidx.camera.core.Camera;
+import androidx.camera.core.CameraSelector;
+import androidx.camera.core.FocusMeteringAction;
+import androidx.camera.core.MeteringPoint;
+import androidx.camera.core.MeteringPointFactory;
+import androidx.camera.view.PreviewView;
+
+/**
+ * Points autofocus and auto exposure at the detector region instead of the
+ * default center weighted metering over the whole preview.
+ *
+ * <p>
+ * Small labels then get sharp sooner and glossy packaging around them does not
+ * drive the exposure. The metering is kept until it is replaced, either by
+ * metering the region again after the analyzer missed for a while, or by a tap
+ * on the preview. All methods must be called on the main thread.
+ */
+class RegionMetering {
+
+  private static final int FLAGS = FocusMeteringAction.FLAG_AF | FocusMeteringAction.FLAG_AE;
+
+  /** Size of a tap-to-focus point, relative to the preview. */
+  private static final float TAP_SIZE = 0.15f;
+
+  private final PreviewView previewView;
+  private final CameraSelector cameraSelector;
+  private final DetectorRegion region;
+  private Camera camera;
+
+  RegionMetering(PreviewView previewView, CameraSelector cameraSelector, DetectorRegion region) {
+    this.previewView = previewView;
+    this.cameraSelector = cameraSelector;
+    this.region = region;
+  }
+
+  /** Sets the camera bound to the preview and meters the detector region. */
+  void setCamera(Camera camera) {
+    this.camera = camera;
+    meterRegion();
+  }
+
+  /** Focuses and exposes for the detector region. */
+  void meterRegion() {
+    if (camera == null) {
+      return;
+    }
+    final int width = previewView.getWidth();
+    final int height = previewView.getHeight();
+    if (width == 0 || height == 0) {
+      // Not laid out yet.
+      previewView.post(new Runnable() {
+        @Override
+        public void run() {
+          if (previewView.getWidth() > 0) {
+            meterRegion();
+          }
+        }
+      });
+      return;
+    }
+
+    Rect rect = region.getRect(width, height);
+    float size = Math.min((float) rect.width() / width, (float) rect.height() / height);
+    meter(rect.exactCenterX(), rect.exactCenterY(), size);
+  }
+
+  /** Focuses and exposes for a point of the preview, e.g. where it was tapped. */
+  void meterPoint(float x, float y) {
+    meter(x, y, TAP_SIZE);
+  }
+
+  private void meter(float x, float y, float size) {
+    if (camera == null) {
+      return;
+    }
+    MeteringPointFactory factory = previewView.createMeteringPointFactory(cameraSelector);
+    MeteringPoint point = factory.createPoint(x, y, size);
+    camera.getCameraControl()
+        .startFocusAndMetering(new FocusMeteringAction.Builder(point, FLAGS).disableAutoCancel().build());
+  }
+}
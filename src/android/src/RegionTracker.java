@@ -0,0 +1,180 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.graphics.Rect;
+
+import com.google.mlkit.vision.barcode.Barcode;
+
+import java.util.List;
+
+/**
+ * Predicts where the barcodes of the last frame will be in the next one.
+ *
+ * <p>
+ * After a hit the bounding boxes of the barcodes found are kept, in upright
+ * frame coordinates, together with their velocity between the last two hits.
+ * The next frames then only crop a window around the position extrapolated to
+ * their timestamp, padded by half the size of the boxes plus the distance the
+ * barcodes might have moved unexpectedly, instead of the whole detector region.
+ * After 'maxMisses' frames without a barcode in the window the track is dropped
+ * and the whole region is scanned again. So a new barcode entering the region
+ * is not missed while the tracked one stays in view, every
+ * {@link #REFRESH_INTERVAL}th frame scans the whole region as well.
+ *
+ * <p>
+ * The sides of the window are rounded up to multiples of {@link #GRID} pixels
+ * and its corners to even coordinates, so the crops come in a handful of sizes
+ * whose buffers the analyzer can reuse, instead of a new size every frame.
+ *
+ * <p>
+ * Updated by the detector thread and read by the analyzer thread.
+ */
+class RegionTracker {
+
+  /** Frames after which the whole detector region is scanned once. */
+  static final int REFRESH_INTERVAL = 10;
+
+  /** Padding around the predicted boxes, relative to their larger side. */
+  private static final double PADDING = 0.5;
+
+  /** Smallest window side in pixels, smaller ones lack the quiet zone. */
+  private static final int MIN_SIDE = 96;
+
+  /** Step the window sides are rounded up to. */
+  static final int GRID = 64;
+
+  /** Tracks older than this are not extrapolated anymore. */
+  private static final long MAX_AGE_NANOS = 500000000L;
+
+  private final int maxMisses;
+
+  private Rect box;
+  private long timestamp;
+  // Velocity of the center in pixels per second.
+  private double velocityX;
+  private double velocityY;
+  private int misses;
+  private int framesSinceRefresh;
+
+  private long trackedFrames;
+  private long fullFrames;
+
+  RegionTracker(int maxMisses) {
+    this.maxMisses = Math.max(1, maxMisses);
+  }
+
+  /**
+   * Returns the window to scan in a frame taken at 'frameTimestamp', or null to
+   * scan the whole detector region.
+   *
+   * @param detectorRect the detector region in upright frame coordinates, the
+   *                     window always lies inside of it.
+   */
+  synchronized Rect predict(long frameTimestamp, Rect detectorRect) {
+    if (box == null || ++framesSinceRefresh >= REFRESH_INTERVAL) {
+      framesSinceRefresh = 0;
+      fullFrames++;
+      return null;
+    }
+
+    double seconds = Math.max(0, Math.min(frameTimestamp - timestamp, MAX_AGE_NANOS)) / 1e9;
+    int dx = (int) Math.round(velocityX * seconds);
+    int dy = (int) Math.round(velocityY * seconds);
+    int padding = (int) (PADDING * Math.max(box.width(), box.height())) + Math.abs(dx) / 2 + Math.abs(dy) / 2;
+
+    Rect window = new Rect(box);
+    window.offset(dx, dy);
+    window.inset(-padding, -padding);
+    grow(window, MIN_SIDE);
+    if (!window.intersect(detectorRect) || window.width() < MIN_SIDE / 2 || window.height() < MIN_SIDE / 2) {
+      fullFrames++;
+      return null;
+    }
+    snap(window, detectorRect);
+    trackedFrames++;
+    return window;
+  }
+
+  /**
+   * Updates the track with the barcodes found in a frame.
+   *
+   * @param barcodes     the barcodes found, empty for a miss.
+   * @param detectorRect the region the frame was detected in, upright.
+   * @param scale        the factor the region was downscaled by.
+   */
+  synchronized void update(List<Barcode> barcodes, Rect detectorRect, int scale, long frameTimestamp) {
+    Rect found = null;
+    for (Barcode barcode : barcodes) {
+      Rect barcodeBox = barcode.getBoundingBox();
+      if (barcodeBox == null) {
+        continue;
+      }
+      Rect upright = new Rect(barcodeBox.left * scale, barcodeBox.top * scale, barcodeBox.right * scale,
+          barcodeBox.bottom * scale);
+      upright.offset(detectorRect.left, detectorRect.top);
+      if (found == null) {
+        found = upright;
+      } else {
+        found.union(upright);
+      }
+    }
+
+    if (found == null) {
+      if (box != null && ++misses >= maxMisses) {
+        box = null;
+      }
+      return;
+    }
+
+    long elapsed = frameTimestamp - timestamp;
+    if (box != null && elapsed > 0 && elapsed <= MAX_AGE_NANOS) {
+      velocityX = (found.exactCenterX() - box.exactCenterX()) * 1e9 / elapsed;
+      velocityY = (found.exactCenterY() - box.exactCenterY()) * 1e9 / elapsed;
+    } else {
+      velocityX = 0;
+      velocityY = 0;
+    }
+    box = found;
+    timestamp = frameTimestamp;
+    misses = 0;
+  }
+
+  /** Returns the frames that were cropped to a tracked window. */
+  synchronized long getTrackedFrames() {
+    return trackedFrames;
+  }
+
+  /** Returns the frames in which the whole detector region was scanned. */
+  synchronized long getFullFrames() {
+    return fullFrames;
+  }
+
+  /**
+   * Rounds the sides of the window up to multiples of {@link #GRID}, at most the
+   * sides of the detector region, and moves it back inside of that around its
+   * center, at even coordinates.
+   */
+  private static void snap(Rect window, Rect detectorRect) {
+    int minLeft = (detectorRect.left + 1) & ~1;
+    int minTop = (detectorRect.top + 1) & ~1;
+    int width = Math.min((window.width() + GRID - 1) / GRID * GRID, (detectorRect.right - minLeft) & ~1);
+    int height = Math.min((window.height() + GRID - 1) / GRID * GRID, (detectorRect.bottom - minTop) & ~1);
+    int left = clamp((window.centerX() - width / 2) & ~1, minLeft, (detectorRect.right - width) & ~1);
+    int top = clamp((window.centerY() - height / 2) & ~1, minTop, (detectorRect.bottom - height) & ~1);
+    window.set(left, top, left + width, top + height);
+  }
+
+  /** Returns 'value' within 'min' and 'max', 'min' if they cross. */
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(value, max));
+  }
+
+  /** Grows the rectangle around its center until both sides are at least 'side'. */
+  private static void grow(Rect rect, int side) {
+    if (rect.width() < side) {
+      rect.inset(-(side - rect.width() + 1) / 2, 0);
+    }
+    if (rect.height() < side) {
+      rect.inset(0, -(side - rect.height() + 1) / 2);
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Size;
+
+import com.google.mlkit.vision.barcode.Barcode;
+
+/**
+ * Picks the analysis resolution for a scan.
+ *
+ * <p>
+ * A barcode is readable once each of its modules, the narrowest bar or the
+ * smallest square, spans about {@link #PIXELS_PER_MODULE} pixels. From the
+ * widest of the requested formats and the share of the frame the detector
+ * region covers follows the smallest frame that still satisfies that, so the
+ * camera does not deliver, and the analyzer does not touch, more pixels than
+ * needed. The detector region is centered and sized relative to the shorter
+ * side of the frame, so 4:3 frames are used, which carry fewer pixels outside
+ * of it than 16:9 ones.
+ *
+ * <p>
+ * Without a choice of formats, every format is enabled and PDF417 asks for
+ * frames of 1440x1080 and more. Those default scans are kept at
+ * {@link #DEFAULT_SHORT_SIDE}, the resolution CameraX analyzes at without a
+ * target resolution and the one the scanner always used before, so they do not
+ * get slower than they were. Large and close barcodes of any format still read
+ * at that size; small ones need the formats or an analysis resolution.
+ */
+final class ResolutionSelector {
+
+  static final int PIXELS_PER_MODULE = 2;
+
+  /** Share of the detector region a barcode is assumed to fill at least. */
+  static final double BARCODE_FILL = 0.8;
+
+  /**
+   * Shorter side of the 640x480 frames CameraX delivers by default, the limit
+   * without a choice of formats.
+   */
+  static final int DEFAULT_SHORT_SIDE = 480;
+
+  /** Shorter sides of the 4:3 resolutions to choose from. */
+  private static final int[] SHORT_SIDES = { 480, 720, 1080, 1440 };
+
+  private ResolutionSelector() {
+  }
+
+  /**
+   * Returns the number of modules along the wider side of a typical barcode of
+   * the given format, including its quiet zone.
+   */
+  static int getModuleCount(int format) {
+    switch (format) {
+    case Barcode.FORMAT_UPC_E:
+      return 60;
+    case Barcode.FORMAT_EAN_8:
+      return 81;
+    case Barcode.FORMAT_DATA_MATRIX:
+      return 36;
+    case Barcode.FORMAT_AZTEC:
+      return 45;
+    case Barcode.FORMAT_QR_CODE:
+      return 65;
+    case Barcode.FORMAT_EAN_13:
+    case Barcode.FORMAT_UPC_A:
+      return 115;
+    case Barcode.FORMAT_ITF:
+    case Barcode.FORMAT_CODABAR:
+    case Barcode.FORMAT_CODE_93:
+      return 140;
+    case Barcode.FORMAT_CODE_39:
+    case Barcode.FORMAT_CODE_128:
+      return 180;
+    case Barcode.FORMAT_PDF417:
+      return 240;
+    default:
+      return 180;
+    }
+  }
+
+  /**
+   * Returns the shorter side of the smallest frame in which the widest of the
+   * given formats gets enough pixels per module.
+   *
+   * @param detectorFormats the formats as passed to the detector.
+   * @param barcodeSpan     the share of the shorter frame side a barcode can
+   *                        span inside the detector region, see
+   *                        {@link DetectorRegion#getBarcodeSpan()}.
+   */
+  static int getMinShortSide(int detectorFormats, double barcodeSpan) {
+    int modules = 0;
+    for (int format = 1; format <= Barcode.FORMAT_AZTEC; format <<= 1) {
+      if ((detectorFormats & format) != 0) {
+        modules = Math.max(modules, getModuleCount(format));
+      }
+    }
+    if (modules == 0) {
+      modules = getModuleCount(Barcode.FORMAT_UNKNOWN);
+    }
+    return (int) Math.ceil(modules * PIXELS_PER_MODULE / (BARCODE_FILL * barcodeSpan));
+  }
+
+  /**
+   * Returns true if the formats are the defaults rather than a choice of the
+   * caller: none given, or all of them.
+   *
+   * @param barcodeFormats the formats as passed to the plugin.
+   */
+  static boolean isDefaultFormats(int barcodeFormats) {
+    return barcodeFormats == 0 || barcodeFormats == 1234 || (barcodeFormats & CameraResources.ALL_FORMATS) == CameraResources.ALL_FORMATS;
+  }
+
+  /**
+   * Returns the requested analysis resolution if one was given, otherwise picks
+   * one for the display orientation.
+   *
+   * @param barcodeFormats the formats as passed to the plugin.
+   */
+  static Size select(Context context, int barcodeFormats, double barcodeSpan, int requestedWidth,
+      int requestedHeight) {
+    if (requestedWidth > 0 && requestedHeight > 0) {
+      return new Size(requestedWidth, requestedHeight);
+    }
+    boolean portrait = context.getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT;
+    int maxShortSide = isDefaultFormats(barcodeFormats) ? DEFAULT_SHORT_SIDE : Integer.MAX_VALUE;
+    return select(CameraResources.getDetectorFormats(barcodeFormats), barcodeSpan, portrait, maxShortSide);
+  }
+
+  /**
+   * Returns the analysis resolution for the given formats and barcode span,
+   * oriented like the display, with a shorter side of at most 'maxShortSide'.
+   */
+  static Size select(int detectorFormats, double barcodeSpan, boolean portrait, int maxShortSide) {
+    int minShortSide = Math.min(getMinShortSide(detectorFormats, barcodeSpan), maxShortSide);
+    int shortSide = SHORT_SIDES[SHORT_SIDES.length - 1];
+    for (int side : SHORT_SIDES) {
+      if (side >= minShortSide) {
+        shortSide = side;
+        break;
+      }
+    }
+
+    int longSide = shortSide * 4 / 3;
+    return portrait ? new Size(shortSide, longSide) : new Size(longSide, shortSide);
+  }
+}
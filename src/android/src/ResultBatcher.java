@@ -0,0 +1,76 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.json.JSONArray;
+
+/**
+ * Coalesces results that are read in quick succession into a single message
+ * across the Cordova bridge.
+ *
+ * <p>
+ * A batch is flushed once it holds 'maxSize' results or 'window' milliseconds
+ * after its first result, whatever comes first. All methods have to be called
+ * on the main thread.
+ */
+class ResultBatcher {
+
+  /** Receives a batch of results, each one in the format of a single result. */
+  interface Sink {
+    void onBatch(JSONArray results);
+  }
+
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final long window;
+  private final int maxSize;
+  private final Sink sink;
+
+  private JSONArray pending = new JSONArray();
+
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  /**
+   * @param window  milliseconds a result waits for more results at most, 0 to
+   *                only flush by size.
+   * @param maxSize number of results that are flushed at once at most, 0 for no
+   *                limit.
+   */
+  ResultBatcher(long window, int maxSize, Sink sink) {
+    this.window = window;
+    this.maxSize = maxSize;
+    this.sink = sink;
+  }
+
+  /** True if the options ask for results to be batched at all. */
+  static boolean isEnabled(long window, int maxSize) {
+    return window > 0 || maxSize > 1;
+  }
+
+  void add(JSONArray result) {
+    pending.put(result);
+
+    if (maxSize > 0 && pending.length() >= maxSize) {
+      flush();
+    } else if (pending.length() == 1 && window > 0) {
+      handler.postDelayed(flushTask, window);
+    }
+  }
+
+  /** Sends all pending results right away. */
+  void flush() {
+    handler.removeCallbacks(flushTask);
+    if (pending.length() == 0) {
+      return;
+    }
+
+    JSONArray batch = pending;
+    pending = new JSONArray();
+    sink.onBatch(batch);
+  }
+}
@@ -0,0 +1,143 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import android.content.Intent;
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+
+import com.google.mlkit.vision.barcode.Barcode;
+
+import org.json.JSONArray;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A barcode read by the scanner, in the form it is handed to JavaScript.
+ *
+ * <p>
+ * The bounding box is given in pixels of the upright camera frame, not of the
+ * detector region ML Kit was run on.
+ */
+class ScanResult {
+
+  static final String BarcodeValues = "MLKitBarcodeValues";
+  static final String BarcodeFormats = "MLKitBarcodeFormats";
+  static final String BarcodeTypes = "MLKitBarcodeTypes";
+  static final String BarcodeBoundingBoxes = "MLKitBarcodeBoundingBoxes";
+
+  final String value;
+  final int format;
+  final int type;
+  @Nullable
+  final Rect boundingBox;
+
+  ScanResult(String value, int format, int type, @Nullable Rect boundingBox) {
+    this.value = value;
+    this.format = format;
+    this.type = type;
+    this.boundingBox = boundingBox;
+  }
+
+  /**
+   * @param detectorRect the region of the upright frame the barcode was detected
+   *                     in, used to move the bounding box into frame
+   *                     coordinates. May be null if the whole frame was used.
+   * @param scale        the factor the region was downscaled by before
+   *                     detection.
+   */
+  static ScanResult from(Barcode barcode, @Nullable Rect detectorRect, int scale) {
+    Rect box = barcode.getBoundingBox();
+    if (box != null && (detectorRect != null || scale != 1)) {
+      box = new Rect(box.left * scale, box.top * scale, box.right * scale, box.bottom * scale);
+      if (detectorRect != null) {
+        box.offset(detectorRect.left, detectorRect.top);
+      }
+    }
+    return new ScanResult(getValue(barcode), barcode.getFormat(), barcode.getValueType(), box);
+  }
+
+  /**
+   * Returns the value of a barcode as string.
+   */
+  static String getValue(Barcode barcode) {
+    String value = barcode.getRawValue();
+
+    // rawValue returns null if string is not UTF-8 encoded.
+    // If that's the case, we will decode it as ASCII,
+    // because it's the most common encoding for barcodes.
+    // e.g. https://www.barcodefaq.com/1d/code-128/
+    if (value == null) {
+      value = new String(barcode.getRawBytes(), StandardCharsets.US_ASCII);
+    }
+    return value;
+  }
+
+  /** Key identifying the barcode independent of where it was seen. */
+  String getKey() {
+    return format + ":" + value;
+  }
+
+  /** Returns [value, format, type, [left, top, right, bottom]]. */
+  JSONArray toJSON() {
+    JSONArray result = new JSONArray();
+    result.put(value);
+    result.put(format);
+    result.put(type);
+    if (boundingBox != null) {
+      JSONArray box = new JSONArray();
+      box.put(boundingBox.left);
+      box.put(boundingBox.top);
+      box.put(boundingBox.right);
+      box.put(boundingBox.bottom);
+      result.put(box);
+    }
+    return result;
+  }
+
+  /** Stores a list of results in the extras of an activity result. */
+  static void putExtras(Intent data, List<ScanResult> results) {
+    int count = results.size();
+    String[] values = new String[count];
+    int[] formats = new int[count];
+    int[] types = new int[count];
+    int[] boxes = new int[count * 4];
+
+    for (int i = 0; i < count; i++) {
+      ScanResult result = results.get(i);
+      values[i] = result.value;
+      formats[i] = result.format;
+      types[i] = result.type;
+      Rect box = result.boundingBox != null ? result.boundingBox : new Rect();
+      boxes[i * 4] = box.left;
+      boxes[i * 4 + 1] = box.top;
+      boxes[i * 4 + 2] = box.right;
+      boxes[i * 4 + 3] = box.bottom;
+    }
+
+    data.putExtra(BarcodeValues, values);
+    data.putExtra(BarcodeFormats, formats);
+    data.putExtra(BarcodeTypes, types);
+    data.putExtra(BarcodeBoundingBoxes, boxes);
+  }
+
+  /** Reads the results stored by {@link #putExtras}, or null if there are none. */
+  @Nullable
+  static List<ScanResult> fromExtras(Intent data) {
+    String[] values = data.getStringArrayExtra(BarcodeValues);
+    int[] formats = data.getIntArrayExtra(BarcodeFormats);
+    int[] types = data.getIntArrayExtra(BarcodeTypes);
+    int[] boxes = data.getIntArrayExtra(BarcodeBoundingBoxes);
+    if (values == null || formats == null || types == null || boxes == null) {
+      return null;
+    }
+
+    List<ScanResult> results = new ArrayList<>(values.length);
+    for (int i = 0; i < values.length; i++) {
+      Rect box = new Rect(boxes[i * 4], boxes[i * 4 + 1], boxes[i * 4 + 2], boxes[i * 4 + 3]);
+      results.add(new ScanResult(values[i], formats[i], types[i], box.isEmpty() ? null : box));
+    }
+    return results;
+  }
+}
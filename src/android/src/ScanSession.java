@@ -0,0 +1,98 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner;
+
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.DuplicateCache;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Connects the plugin with the running {@link CaptureActivity}.
+ *
+ * <p>
+ * A one-shot scan returns its result through the activity result. A continuous
+ * scan keeps the activity open, so every barcode is handed to the
+ * {@link Listener} registered by the plugin instead, and the plugin stops the
+ * scan through {@link #stop()}.
+ *
+ * <p>
+ * The session also owns the {@link DuplicateCache}, so repeated reads are
+ * suppressed across scans and not only within one.
+ */
+final class ScanSession {
+
+  /** Receives the barcodes of a continuous scan. Called on the main thread. */
+  interface Listener {
+    void onBarcodeRead(ScanResult result);
+  }
+
+  private static WeakReference<CaptureActivity> activity = new WeakReference<>(null);
+  private static Listener listener;
+  private static final DuplicateCache duplicateCache = new DuplicateCache();
+  private static BarcodeAnalyzer analyzer;
+
+  private ScanSession() {
+  }
+
+  static DuplicateCache getDuplicateCache() {
+    return duplicateCache;
+  }
+
+  /** Registers the analyzer of the running scan, so its statistics can be read. */
+  static synchronized void setAnalyzer(BarcodeAnalyzer scanAnalyzer) {
+    analyzer = scanAnalyzer;
+  }
+
+  static synchronized void clearAnalyzer(BarcodeAnalyzer scanAnalyzer) {
+    if (analyzer == scanAnalyzer) {
+      analyzer = null;
+    }
+  }
+
+  /** Returns the analyzer of the running scan, null if none is running. */
+  static synchronized BarcodeAnalyzer getAnalyzer() {
+    return analyzer;
+  }
+
+  static synchronized void setListener(Listener sessionListener) {
+    listener = sessionListener;
+  }
+
+  static synchronized void attach(CaptureActivity captureActivity) {
+    activity = new WeakReference<>(captureActivity);
+  }
+
+  static synchronized void detach(CaptureActivity captureActivity) {
+    if (activity.get() == captureActivity) {
+      activity.clear();
+    }
+  }
+
+  /** Hands a barcode of a continuous scan to the plugin. */
+  static void deliver(ScanResult result) {
+    Listener current;
+    synchronized (ScanSession.class) {
+      current = listener;
+    }
+    if (current != null) {
+      current.onBarcodeRead(result);
+    }
+  }
+
+  /**
+   * Closes the running capture activity, if any.
+   *
+   * @return true if an activity was running.
+   */
+  static synchronized boolean stop() {
+    final CaptureActivity captureActivity = activity.get();
+    if (captureActivity == null || captureActivity.isFinishing()) {
+      return false;
+    }
+    captureActivity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        captureActivity.finish();
+      }
+    });
+    return true;
+  }
+}
@@ -0,0 +1,178 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Switches the torch on in the dark and off again once it is bright.
+ *
+ * <p>
+ * Every {@link #MEASURE_INTERVAL_NANOS} the luma of a sparse grid of
+ * {@link #GRID} x {@link #GRID} pixels of the Y plane is read, giving the mean
+ * brightness and a histogram of it. The scene counts as dark if the mean is low
+ * or most of it is close to black: auto exposure brings any scene with enough
+ * light back to mid gray, so the frames only stay dark once it runs out of
+ * exposure time and gain. The torch is switched on after the scene stayed dark
+ * for {@link #SETTLE_NANOS}, so it does not react to a passing shadow.
+ *
+ * <p>
+ * With the torch on, the frames are exposed to mid gray as well, whether or not
+ * there is enough ambient light by now, so their brightness cannot tell when to
+ * switch it off. Instead the torch is switched off for a probe every now and
+ * then: once the exposure has adapted for {@link #PROBE_SETTLE_NANOS}, a dark
+ * frame switches it right back on, otherwise it stays off. Each probe that
+ * finds the scene still dark doubles the time to the next one, from
+ * {@link #FIRST_PROBE_NANOS} up to {@link #MAX_PROBE_NANOS}, so the torch
+ * rarely blinks in a scene that stays dark.
+ */
+public class AutoTorch {
+
+  /** Receives the torch state to set. */
+  public interface Listener {
+    void onTorchChanged(boolean on);
+  }
+
+  static final int GRID = 32;
+  static final long MEASURE_INTERVAL_NANOS = 100_000_000L;
+  static final long SETTLE_NANOS = 1_000_000_000L;
+  static final long FIRST_PROBE_NANOS = 5_000_000_000L;
+  static final long MAX_PROBE_NANOS = 20_000_000_000L;
+  // Time auto exposure gets after the torch went off, and the time the scene is
+  // then watched for darkness before the probe ends.
+  static final long PROBE_SETTLE_NANOS = 600_000_000L;
+  static final long PROBE_MEASURE_NANOS = 300_000_000L;
+
+  // Below this mean luma the scene is dark.
+  private static final int DARK_MEAN = 45;
+  // Luma counted as close to black, and the share of the samples that is enough
+  // to call the scene dark even with a few bright spots.
+  private static final int BLACK_LEVEL = 32;
+  private static final double DARK_SHARE = 0.8;
+  private static final int BINS = 16;
+
+  private final Listener listener;
+  private final int[] histogram = new int[BINS];
+
+  private boolean torchOn;
+  private volatile boolean disabled;
+  private long lastMeasurement;
+  // Since when the scene is dark with the torch off, 0 if it is not.
+  private long darkSince;
+  private boolean probing;
+  private long probeStart;
+  private long nextProbe;
+  private long probeInterval = FIRST_PROBE_NANOS;
+
+  private volatile int meanLuma;
+  private volatile double darkShare;
+
+  public AutoTorch(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Stops switching the torch, e.g. because the user switched it by hand. Can be
+   * called from any thread.
+   */
+  public void disable() {
+    disabled = true;
+  }
+
+  /**
+   * Measures the frame if it is time to and switches the torch if the scene
+   * stayed dark long enough or a probe found it bright. Call on the analyzer
+   * thread.
+   *
+   * @param luma the Y plane of the frame.
+   */
+  public void update(long nowNanos, ByteBuffer luma, int rowStride, int pixelStride, int width, int height) {
+    if (disabled || nowNanos - lastMeasurement < MEASURE_INTERVAL_NANOS) {
+      return;
+    }
+    lastMeasurement = nowNanos;
+    measure(luma, rowStride, pixelStride, width, height);
+
+    if (probing) {
+      updateProbe(nowNanos);
+    } else if (torchOn) {
+      if (nowNanos >= nextProbe) {
+        // Frames exposed for the torch say nothing about the ambient light, look
+        // without it.
+        probing = true;
+        probeStart = nowNanos;
+        setTorch(false);
+      }
+    } else if (!isDark()) {
+      darkSince = 0;
+    } else if (darkSince == 0) {
+      darkSince = nowNanos;
+    } else if (nowNanos - darkSince >= SETTLE_NANOS) {
+      darkSince = 0;
+      probeInterval = FIRST_PROBE_NANOS;
+      nextProbe = nowNanos + probeInterval;
+      setTorch(true);
+    }
+  }
+
+  /** Returns the mean luma of the last measured frame, 0 to 255. */
+  public int getMeanLuma() {
+    return meanLuma;
+  }
+
+  /** Returns the share of the last measured frame that is close to black. */
+  public double getDarkShare() {
+    return darkShare;
+  }
+
+  private boolean isDark() {
+    return meanLuma < DARK_MEAN || darkShare >= DARK_SHARE;
+  }
+
+  private void updateProbe(long nowNanos) {
+    long elapsed = nowNanos - probeStart;
+    if (elapsed < PROBE_SETTLE_NANOS) {
+      return;
+    }
+    if (isDark()) {
+      // Still dark, light up again and look less often.
+      probing = false;
+      probeInterval = Math.min(MAX_PROBE_NANOS, probeInterval * 2);
+      nextProbe = nowNanos + probeInterval;
+      setTorch(true);
+    } else if (elapsed >= PROBE_SETTLE_NANOS + PROBE_MEASURE_NANOS) {
+      // Bright enough without the torch, leave it off.
+      probing = false;
+      darkSince = 0;
+    }
+  }
+
+  private void setTorch(boolean on) {
+    torchOn = on;
+    listener.onTorchChanged(on);
+  }
+
+  private void measure(ByteBuffer luma, int rowStride, int pixelStride, int width, int height) {
+    for (int i = 0; i < BINS; i++) {
+      histogram[i] = 0;
+    }
+
+    long sum = 0;
+    int samples = 0;
+    for (int gy = 0; gy < GRID; gy++) {
+      int row = (int) ((gy + 0.5) * height / GRID);
+      for (int gx = 0; gx < GRID; gx++) {
+        int col = (int) ((gx + 0.5) * width / GRID);
+        int value = luma.get(row * rowStride + col * pixelStride) & 0xff;
+        histogram[value * BINS / 256]++;
+        sum += value;
+        samples++;
+      }
+    }
+
+    int black = 0;
+    for (int i = 0; i < BLACK_LEVEL * BINS / 256; i++) {
+      black += histogram[i];
+    }
+    meanLuma = (int) (sum / samples);
+    darkShare = (double) black / samples;
+  }
+}
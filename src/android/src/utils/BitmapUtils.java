@@ -16,7 +16,6 @@
 
 package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
 
-import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -24,7 +23,6 @@ import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
-import android.media.Image;
 import android.media.Image.Plane;
 import android.net.Uri;
 import android.os.Build.VERSION_CODES;
@@ -46,7 +44,10 @@ import java.nio.ByteBuffer;
 public class BitmapUtils {
   private static final String TAG = "BitmapUtils";
 
-  /** Converts NV21 format byte buffer to bitmap. */
+  /**
+   * Converts NV21 format byte buffer to bitmap. The pixels are not rotated, pass
+   * {@link FrameMetadata#getRotation()} on to the detector instead.
+   */
   @Nullable
   public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
     data.rewind();
@@ -60,7 +61,7 @@ public class BitmapUtils {
       Bitmap bmp = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
 
       stream.close();
-      return rotateBitmap(bmp, metadata.getRotation(), false, false);
+      return bmp;
     } catch (Exception e) {
       Log.e("VisionProcessorBase", "Error: " + e.getMessage());
     }
@@ -79,6 +80,78 @@ public class BitmapUtils {
     return getBitmap(nv21Buffer, frameMetadata);
   }
 
+  /**
+   * Converts the crop region of the planes of a YUV_420_888 image from CameraX
+   * API to a bitmap, taking every buffer and bitmap from 'pool'.
+   *
+   * <p>
+   * Only the pixels inside {@link FrameMetadata#getCropRect()} are converted and
+   * encoded, so the cost scales with the size of the region instead of the size
+   * of the sensor frame. The pixels are not rotated, pass
+   * {@link FrameMetadata#getRotation()} on to the detector instead. The returned
+   * bitmap belongs to the pool and should be released to it once it is not
+   * needed anymore.
+   */
+  @RequiresApi(VERSION_CODES.KITKAT)
+  @Nullable
+  public static Bitmap getBitmap(YuvPlane[] planes, FrameMetadata metadata, FrameBufferPool pool) {
+    Rect crop = metadata.getCropRect();
+    if (crop == null) {
+      crop = new Rect(0, 0, metadata.getWidth(), metadata.getHeight());
+    }
+    int width = crop.width();
+    int height = crop.height();
+    int cropSize = width * height;
+
+    byte[] nv21 = pool.acquireBuffer(cropSize + 2 * (cropSize / 4));
+    Bitmap decoded = null;
+    try {
+      yuv420ThreePlanesToNV21(planes, crop, nv21);
+
+      FrameBufferPool.FrameOutputStream stream = pool.getJpegStream();
+      long start = ScanStats.begin("jpegEncode");
+      try {
+        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        yuvImage.compressToJpeg(new Rect(0, 0, width, height), 80, stream);
+      } finally {
+        ScanStats.end(ScanStats.JPEG_ENCODE, start);
+      }
+
+      BitmapFactory.Options options = pool.getDecodeOptions();
+      decoded = pool.acquireBitmap(width, height);
+      options.inBitmap = decoded;
+      start = ScanStats.begin("jpegDecode");
+      try {
+        return BitmapFactory.decodeByteArray(stream.getBuffer(), 0, stream.size(), options);
+      } finally {
+        ScanStats.end(ScanStats.JPEG_DECODE, start);
+      }
+    } catch (Exception e) {
+      Log.e("VisionProcessorBase", "Error: " + e.getMessage());
+      if (decoded != null) {
+        pool.releaseBitmap(decoded);
+      }
+    } finally {
+      pool.releaseBuffer(nv21);
+    }
+    return null;
+  }
+
+  /**
+   * Maps a rectangle given in upright coordinates, i.e. after rotating the frame
+   * by 'rotationDegrees', back to the coordinates of the sensor frame of size
+   * 'width' x 'height'.
+   *
+   * <p>
+   * The result is aligned to even coordinates, so it can be used to address the
+   * subsampled U and V planes as well.
+   */
+  public static Rect toSensorRect(Rect upright, int width, int height, int rotationDegrees) {
+    int[] sensor = YuvConverter.toSensorRect(upright.left, upright.top, upright.right, upright.bottom, width, height,
+        rotationDegrees);
+    return new Rect(sensor[0], sensor[1], sensor[2], sensor[3]);
+  }
+
   /** Rotates a bitmap if it is converted from a bytebuffer. */
   private static Bitmap rotateBitmap(Bitmap bitmap, int rotationDegrees, boolean flipX, boolean flipY) {
     Matrix matrix = new Matrix();
@@ -144,6 +217,79 @@ public class BitmapUtils {
     return rotateBitmap(decodedBitmap, rotationDegrees, flipX, flipY);
   }
 
+  /**
+   * Reads the size of an image without decoding its pixels.
+   *
+   * @return width and height, null if the image could not be read.
+   */
+  @Nullable
+  public static int[] getImageSize(ContentResolver contentResolver, Uri imageUri) throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    try (InputStream inputStream = contentResolver.openInputStream(imageUri)) {
+      if (inputStream == null) {
+        return null;
+      }
+      BitmapFactory.decodeStream(inputStream, null, options);
+    }
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+    return new int[] { options.outWidth, options.outHeight };
+  }
+
+  /**
+   * Decodes an image at 1 / 'sampleSize' of its size. The pixels are not
+   * rotated, see {@link #getExifRotationDegrees}.
+   */
+  @Nullable
+  public static Bitmap decodeSampledBitmap(ContentResolver contentResolver, Uri imageUri, int sampleSize)
+      throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize = sampleSize;
+    try (InputStream inputStream = contentResolver.openInputStream(imageUri)) {
+      if (inputStream == null) {
+        return null;
+      }
+      return BitmapFactory.decodeStream(inputStream, null, options);
+    }
+  }
+
+  /**
+   * Returns the largest power of two an image of the given size can be
+   * subsampled by, so that a barcode covering 'barcodeFraction' of its longer
+   * side still spans at least 'minBarcodePixels' pixels.
+   */
+  public static int getSampleSize(int width, int height, double barcodeFraction, int minBarcodePixels) {
+    int barcodePixels = (int) (Math.max(width, height) * barcodeFraction);
+    int sampleSize = 1;
+    while (barcodePixels / (sampleSize * 2) >= minBarcodePixels) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  /**
+   * Returns the clockwise rotation that turns an image upright according to its
+   * EXIF orientation. Mirrored orientations are treated like their unmirrored
+   * counterpart.
+   */
+  public static int getExifRotationDegrees(ContentResolver contentResolver, Uri imageUri) {
+    switch (getExifOrientationTag(contentResolver, imageUri)) {
+    case ExifInterface.ORIENTATION_ROTATE_90:
+    case ExifInterface.ORIENTATION_TRANSPOSE:
+      return 90;
+    case ExifInterface.ORIENTATION_ROTATE_180:
+    case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+      return 180;
+    case ExifInterface.ORIENTATION_ROTATE_270:
+    case ExifInterface.ORIENTATION_TRANSVERSE:
+      return 270;
+    default:
+      return 0;
+    }
+  }
+
   private static int getExifOrientationTag(ContentResolver resolver, Uri imageUri) {
     // We only support parsing EXIF orientation tag from local file on the device.
     // See also:
@@ -169,118 +315,49 @@ public class BitmapUtils {
   }
 
   /**
-   * Converts YUV_420_888 to NV21 bytebuffer.
-   *
-   * <p>
-   * The NV21 format consists of a single byte array containing the Y, U and V
-   * values. For an image of size S, the first S positions of the array contain
-   * all the Y values. The remaining positions contain interleaved V and U values.
-   * U and V are subsampled by a factor of 2 in both dimensions, so there are S/4
-   * U values and S/4 V values. In summary, the NV21 array will contain S Y values
-   * followed by S/4 VU values: YYYYYYYYYYYYYY(...)YVUVUVUVU(...)VU
-   *
-   * <p>
-   * YUV_420_888 is a generic format that can describe any YUV image where U and V
-   * are subsampled by a factor of 2 in both dimensions. {@link Image#getPlanes}
-   * returns an array with the Y, U and V planes. The Y plane is guaranteed not to
-   * be interleaved, so we can just copy its values into the first part of the
-   * NV21 array. The U and V planes may already have the representation in the
-   * NV21 format. This happens if the planes share the same buffer, the V buffer
-   * is one position before the U buffer and the planes have a pixelStride of 2.
-   * If this is case, we can just copy them to the NV21 array.
+   * Converts YUV_420_888 to NV21 bytebuffer, see
+   * {@link YuvConverter#toNV21(YuvPlane[], int, int, byte[])}.
    */
   @RequiresApi(VERSION_CODES.KITKAT)
   private static ByteBuffer yuv420ThreePlanesToNV21(Plane[] yuv420888planes, int width, int height) {
     int imageSize = width * height;
     byte[] out = new byte[imageSize + 2 * (imageSize / 4)];
-
-    if (areUVPlanesNV21(yuv420888planes, width, height)) {
-      // Copy the Y values.
-      yuv420888planes[0].getBuffer().get(out, 0, imageSize);
-
-      ByteBuffer uBuffer = yuv420888planes[1].getBuffer();
-      ByteBuffer vBuffer = yuv420888planes[2].getBuffer();
-      // Get the first V value from the V buffer, since the U buffer does not contain
-      // it.
-      vBuffer.get(out, imageSize, 1);
-      // Copy the first U value and the remaining VU values from the U buffer.
-      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
-    } else {
-      // Fallback to copying the UV values one by one, which is slower but also works.
-      // Unpack Y.
-      unpackPlane(yuv420888planes[0], width, height, out, 0, 1);
-      // Unpack U.
-      unpackPlane(yuv420888planes[1], width, height, out, imageSize + 1, 2);
-      // Unpack V.
-      unpackPlane(yuv420888planes[2], width, height, out, imageSize, 2);
-    }
-
+    YuvConverter.toNV21(ImagePlane.wrap(yuv420888planes), width, height, out);
     return ByteBuffer.wrap(out);
   }
 
   /**
-   * Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format.
+   * Converts the given region of a YUV_420_888 image to an NV21 byte array.
+   *
+   * <p>
+   * Only the pixels inside 'crop' are copied, so the cost scales with the size of
+   * the region instead of the size of the sensor frame. The crop rectangle has to
+   * be aligned to even coordinates, since U and V are subsampled by a factor of 2.
    */
   @RequiresApi(VERSION_CODES.KITKAT)
-  private static boolean areUVPlanesNV21(Plane[] planes, int width, int height) {
-    int imageSize = width * height;
-
-    ByteBuffer uBuffer = planes[1].getBuffer();
-    ByteBuffer vBuffer = planes[2].getBuffer();
-
-    // Backup buffer properties.
-    int vBufferPosition = vBuffer.position();
-    int uBufferLimit = uBuffer.limit();
-
-    // Advance the V buffer by 1 byte, since the U buffer will not contain the first
-    // V value.
-    vBuffer.position(vBufferPosition + 1);
-    // Chop off the last byte of the U buffer, since the V buffer will not contain
-    // the last U value.
-    uBuffer.limit(uBufferLimit - 1);
-
-    // Check that the buffers are equal and have the expected number of elements.
-    boolean areNV21 = (vBuffer.remaining() == (2 * imageSize / 4 - 2)) && (vBuffer.compareTo(uBuffer) == 0);
-
-    // Restore buffers to their initial state.
-    vBuffer.position(vBufferPosition);
-    uBuffer.limit(uBufferLimit);
-
-    return areNV21;
+  public static byte[] yuv420ThreePlanesToNV21(Plane[] yuv420888planes, Rect crop) {
+    int cropSize = crop.width() * crop.height();
+    byte[] out = new byte[cropSize + 2 * (cropSize / 4)];
+    yuv420ThreePlanesToNV21(yuv420888planes, crop, out);
+    return out;
   }
 
   /**
-   * Unpack an image plane into a byte array.
-   *
-   * The input plane data will be copied in 'out', starting at 'offset' and every
-   * pixel will be spaced by 'pixelStride'. Note that there is no row padding on
-   * the output.
+   * Converts the given region of a YUV_420_888 image to NV21 into 'out', which
+   * must hold at least crop.width() * crop.height() * 3 / 2 bytes.
    */
-  @TargetApi(VERSION_CODES.KITKAT)
-  private static void unpackPlane(Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
-    ByteBuffer buffer = plane.getBuffer();
-    buffer.rewind();
-
-    // Compute the size of the current plane.
-    // We assume that it has the aspect ratio as the original image.
-    int numRow = (buffer.limit() + plane.getRowStride() - 1) / plane.getRowStride();
-    if (numRow == 0) {
-      return;
-    }
-    int scaleFactor = height / numRow;
-    int numCol = width / scaleFactor;
-
-    // Extract the data in the output buffer.
-    int outputPos = offset;
-    int rowStart = 0;
-    for (int row = 0; row < numRow; row++) {
-      int inputPos = rowStart;
-      for (int col = 0; col < numCol; col++) {
-        out[outputPos] = buffer.get(inputPos);
-        outputPos += pixelStride;
-        inputPos += plane.getPixelStride();
-      }
-      rowStart += plane.getRowStride();
+  @RequiresApi(VERSION_CODES.KITKAT)
+  public static void yuv420ThreePlanesToNV21(Plane[] yuv420888planes, Rect crop, byte[] out) {
+    yuv420ThreePlanesToNV21(ImagePlane.wrap(yuv420888planes), crop, out);
+  }
+
+  /** Like {@link #yuv420ThreePlanesToNV21(Plane[], Rect, byte[])}, for wrapped planes. */
+  public static void yuv420ThreePlanesToNV21(YuvPlane[] planes, Rect crop, byte[] out) {
+    long start = ScanStats.begin("planeCopy");
+    try {
+      YuvConverter.toNV21(planes, crop.left, crop.top, crop.width(), crop.height(), out);
+    } finally {
+      ScanStats.end(ScanStats.PLANE_COPY, start);
     }
   }
 }
@@ -0,0 +1,94 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import android.os.SystemClock;
+import android.util.SparseLongArray;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU of recently read barcodes, used to suppress repeated reads of the
+ * same value.
+ *
+ * <p>
+ * Entries are keyed by format and raw value. A value counts as duplicate while
+ * it was last seen less than the time-to-live of its format ago; every hit
+ * extends that window, so a label that stays in front of the camera is only
+ * reported once. A time-to-live of 0 disables the suppression for a format.
+ */
+public class DuplicateCache {
+
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final SparseLongArray formatTtls = new SparseLongArray();
+
+  private long defaultTtl;
+  private int maxEntries = 64;
+
+  private long hits;
+  private long misses;
+
+  /**
+   * @param ttl        time-to-live in milliseconds for all formats without their
+   *                   own entry in 'formatTtls'.
+   * @param formatTtls time-to-live in milliseconds per barcode format flag, may
+   *                   be null.
+   * @param maxEntries number of values that are remembered at most.
+   */
+  public synchronized void configure(long ttl, SparseLongArray formatTtls, int maxEntries) {
+    this.defaultTtl = Math.max(0, ttl);
+    this.maxEntries = Math.max(1, maxEntries);
+    this.formatTtls.clear();
+    if (formatTtls != null) {
+      for (int i = 0; i < formatTtls.size(); i++) {
+        this.formatTtls.put(formatTtls.keyAt(i), Math.max(0, formatTtls.valueAt(i)));
+      }
+    }
+    trim();
+  }
+
+  /**
+   * Records a read of the given value and checks whether it was already seen
+   * within the time-to-live of its format.
+   */
+  public synchronized boolean isDuplicate(int format, String value) {
+    long ttl = formatTtls.get(format, defaultTtl);
+    if (ttl <= 0) {
+      return false;
+    }
+
+    long now = SystemClock.elapsedRealtime();
+    String key = format + ":" + value;
+    Long lastSeen = entries.put(key, now);
+    if (lastSeen != null && now - lastSeen < ttl) {
+      hits++;
+      return true;
+    }
+
+    misses++;
+    trim();
+    return false;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /** Number of reads that were suppressed as duplicates. */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** Number of reads that were let through as new values. */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  private void trim() {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (entries.size() > maxEntries && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Size keyed pool of the frame sized objects used while converting camera
+ * frames.
+ *
+ * <p>
+ * Camera frames keep their size for the whole scan session, so after the first
+ * frames every request can be served from the pool and steady-state scanning
+ * does not allocate frame sized buffers or bitmaps anymore. The allocation
+ * counters can be used to verify that.
+ *
+ * <p>
+ * Tracking and the resolution pyramid crop frames to a few more sizes. At most
+ * {@link #MAX_SIZES} sizes of buffers and of bitmaps are kept, a released
+ * object of another size evicts the size that was used least recently, so the
+ * pool cannot grow over a long scan.
+ */
+public class FrameBufferPool {
+
+  /** Number of buffer sizes, and of bitmap sizes, that are pooled at most. */
+  static final int MAX_SIZES = 8;
+
+  private final SparseArray<Slot<byte[]>> buffers = new SparseArray<>();
+  private final LongSparseArray<Slot<Bitmap>> bitmaps = new LongSparseArray<>();
+
+  private final FrameOutputStream jpegStream = new FrameOutputStream();
+  private final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+
+  private long bufferAllocations;
+  private long bitmapAllocations;
+  private long reuses;
+  private long evictions;
+  // Increases with every request, tells when a size was used last.
+  private long useCount;
+
+  public FrameBufferPool() {
+    decodeOptions.inMutable = true;
+  }
+
+  /** Returns a byte array of exactly 'size' bytes. Its content is undefined. */
+  public synchronized byte[] acquireBuffer(int size) {
+    Slot<byte[]> slot = buffers.get(size);
+    if (slot != null) {
+      slot.lastUse = ++useCount;
+      if (!slot.queue.isEmpty()) {
+        reuses++;
+        return slot.queue.pop();
+      }
+    }
+    bufferAllocations++;
+    return new byte[size];
+  }
+
+  public synchronized void releaseBuffer(byte[] buffer) {
+    Slot<byte[]> slot = buffers.get(buffer.length);
+    if (slot == null) {
+      if (buffers.size() >= MAX_SIZES) {
+        buffers.removeAt(leastRecentlyUsed(buffers));
+        evictions++;
+      }
+      slot = new Slot<>(++useCount);
+      buffers.put(buffer.length, slot);
+    }
+    slot.queue.push(buffer);
+  }
+
+  /** Returns a mutable ARGB_8888 bitmap of the given size. Its content is undefined. */
+  public synchronized Bitmap acquireBitmap(int width, int height) {
+    Slot<Bitmap> slot = bitmaps.get(bitmapKey(width, height));
+    if (slot != null) {
+      slot.lastUse = ++useCount;
+      while (!slot.queue.isEmpty()) {
+        Bitmap bitmap = slot.queue.pop();
+        if (!bitmap.isRecycled()) {
+          reuses++;
+          return bitmap;
+        }
+      }
+    }
+    bitmapAllocations++;
+    return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+  }
+
+  public synchronized void releaseBitmap(Bitmap bitmap) {
+    long key = bitmapKey(bitmap.getWidth(), bitmap.getHeight());
+    Slot<Bitmap> slot = bitmaps.get(key);
+    if (slot == null) {
+      if (bitmaps.size() >= MAX_SIZES) {
+        int index = leastRecentlyUsed(bitmaps);
+        recycle(bitmaps.valueAt(index));
+        bitmaps.removeAt(index);
+        evictions++;
+      }
+      slot = new Slot<>(++useCount);
+      bitmaps.put(key, slot);
+    }
+    slot.queue.push(bitmap);
+  }
+
+  /** Drops all pooled objects and recycles the pooled bitmaps. */
+  public synchronized void clear() {
+    for (int i = 0; i < bitmaps.size(); i++) {
+      recycle(bitmaps.valueAt(i));
+    }
+    bitmaps.clear();
+    buffers.clear();
+  }
+
+  /**
+   * Scratch objects for the bitmap conversion. They are not synchronized and
+   * must only be used from the thread that converts the frames.
+   */
+  FrameOutputStream getJpegStream() {
+    jpegStream.reset();
+    return jpegStream;
+  }
+
+  BitmapFactory.Options getDecodeOptions() {
+    return decodeOptions;
+  }
+
+  /** Number of byte arrays created because the pool had none of the right size. */
+  public synchronized long getBufferAllocations() {
+    return bufferAllocations;
+  }
+
+  /** Number of bitmaps created because the pool had none of the right size. */
+  public synchronized long getBitmapAllocations() {
+    return bitmapAllocations;
+  }
+
+  /** Number of requests that were served from the pool. */
+  public synchronized long getReuses() {
+    return reuses;
+  }
+
+  /** Number of pooled sizes that were dropped to make room for another size. */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  private static void recycle(Slot<Bitmap> slot) {
+    for (Bitmap bitmap : slot.queue) {
+      bitmap.recycle();
+    }
+  }
+
+  private static int leastRecentlyUsed(SparseArray<? extends Slot<?>> slots) {
+    int oldest = 0;
+    for (int i = 1; i < slots.size(); i++) {
+      if (slots.valueAt(i).lastUse < slots.valueAt(oldest).lastUse) {
+        oldest = i;
+      }
+    }
+    return oldest;
+  }
+
+  private static int leastRecentlyUsed(LongSparseArray<? extends Slot<?>> slots) {
+    int oldest = 0;
+    for (int i = 1; i < slots.size(); i++) {
+      if (slots.valueAt(i).lastUse < slots.valueAt(oldest).lastUse) {
+        oldest = i;
+      }
+    }
+    return oldest;
+  }
+
+  private static long bitmapKey(int width, int height) {
+    return ((long) width << 32) | (height & 0xffffffffL);
+  }
+
+  /** The pooled objects of one size and when that size was last used. */
+  private static class Slot<T> {
+    final ArrayDeque<T> queue = new ArrayDeque<>();
+    long lastUse;
+
+    Slot(long lastUse) {
+      this.lastUse = lastUse;
+    }
+  }
+
+  /** Output stream that exposes its buffer, so the JPEG data is not copied. */
+  static class FrameOutputStream extends ByteArrayOutputStream {
+    FrameOutputStream() {
+      super(64 * 1024);
+    }
+
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
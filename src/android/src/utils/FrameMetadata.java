@@ -16,12 +16,21 @@
 
 package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
 
-/** Describing a frame info. */
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Describing a frame info. The analyzer keeps one instance and updates it with
+ * {@link #set} for every frame.
+ */
 public class FrameMetadata {
 
-  private final int width;
-  private final int height;
-  private final int rotation;
+  private int width;
+  private int height;
+  private int rotation;
+  @Nullable
+  private Rect cropRect;
 
   public int getWidth() {
     return width;
@@ -35,10 +44,26 @@ public class FrameMetadata {
     return rotation;
   }
 
-  private FrameMetadata(int width, int height, int rotation) {
+  /**
+   * The region of the frame that should be processed, in sensor coordinates, or
+   * null for the whole frame.
+   */
+  @Nullable
+  public Rect getCropRect() {
+    return cropRect;
+  }
+
+  private FrameMetadata(int width, int height, int rotation, @Nullable Rect cropRect) {
+    set(width, height, rotation, cropRect);
+  }
+
+  /** Describes another frame with this instance and returns it. */
+  public FrameMetadata set(int width, int height, int rotation, @Nullable Rect cropRect) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
+    this.cropRect = cropRect;
+    return this;
   }
 
   public static class Builder {
@@ -46,6 +71,7 @@ public class FrameMetadata {
     private int width;
     private int height;
     private int rotation;
+    private Rect cropRect;
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -62,8 +88,13 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setCropRect(@Nullable Rect cropRect) {
+      this.cropRect = cropRect;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation);
+      return new FrameMetadata(width, height, rotation, cropRect);
     }
   }
 }
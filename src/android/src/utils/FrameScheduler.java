@@ -0,0 +1,177 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import android.content.Context;
+import android.os.PowerManager;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Decides which camera frames are analyzed.
+ *
+ * <p>
+ * The scheduler keeps a moving average of the time the detector needs per
+ * frame and limits the share of time spent on analysis based on the thermal
+ * status of the device and on that latency. Frames arriving before the
+ * resulting interval has passed are dropped. When the scene changes, e.g.
+ * because a new label is moved into view, the next frame is analyzed right
+ * away, so throttling does not delay a fresh scan.
+ *
+ * <p>
+ * The thermal status is polled once a second. It only exists from Android 10
+ * (API 29) on and is read via reflection, so the plugin still compiles against
+ * the SDK 28 of cordova-android 8; older devices are always treated as cool.
+ */
+public class FrameScheduler {
+
+  // Weight of a new sample in the moving average of the latency.
+  private static final double LATENCY_SMOOTHING = 0.2;
+  // Above this average latency the device is considered struggling.
+  private static final long SLOW_LATENCY_NANOS = 120_000_000L;
+  // Mean absolute luma difference of the scene signature that counts as change.
+  private static final int SCENE_CHANGE_THRESHOLD = 12;
+  private static final int SIGNATURE_GRID = 8;
+
+  // PowerManager.THERMAL_STATUS_* of API 29.
+  private static final int THERMAL_STATUS_NONE = 0;
+  private static final int THERMAL_STATUS_LIGHT = 1;
+  private static final int THERMAL_STATUS_MODERATE = 2;
+  private static final int THERMAL_STATUS_SEVERE = 3;
+  private static final long THERMAL_POLL_NANOS = 1_000_000_000L;
+
+  private final PowerManager powerManager;
+  private final Method getCurrentThermalStatus;
+  private volatile int thermalStatus;
+  private long lastThermalPoll;
+
+  private double averageLatency;
+  private long lastAnalysisStart;
+  private final int[] signature = new int[SIGNATURE_GRID * SIGNATURE_GRID];
+  private boolean hasSignature;
+
+  private volatile long analyzedFrames;
+  private volatile long droppedFrames;
+
+  public FrameScheduler(Context context) {
+    powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    Method method = null;
+    try {
+      method = PowerManager.class.getMethod("getCurrentThermalStatus");
+    } catch (NoSuchMethodException e) {
+      // Before Android 10.
+    }
+    getCurrentThermalStatus = powerManager != null ? method : null;
+  }
+
+  /**
+   * Checks whether a frame should be analyzed. Must be called for every frame,
+   * on the analyzer thread.
+   *
+   * @param luma the Y plane of the frame.
+   */
+  public boolean shouldAnalyze(long nowNanos, ByteBuffer luma, int rowStride, int pixelStride, int width,
+      int height) {
+    pollThermalStatus(nowNanos);
+    boolean sceneChanged = updateSignature(luma, rowStride, pixelStride, width, height);
+
+    if (!sceneChanged && nowNanos - lastAnalysisStart < getMinInterval()) {
+      droppedFrames++;
+      return false;
+    }
+
+    lastAnalysisStart = nowNanos;
+    analyzedFrames++;
+    return true;
+  }
+
+  /** Records how long the detector needed for an analyzed frame. */
+  public synchronized void recordLatency(long nanos) {
+    averageLatency = averageLatency == 0 ? nanos
+        : averageLatency + LATENCY_SMOOTHING * (nanos - averageLatency);
+  }
+
+  /**
+   * Minimum time between the start of two analyses. With a duty cycle d the
+   * detector may be busy for the share d of the time, so after a frame that took
+   * t it has to stay idle for t * (1 / d - 1).
+   */
+  public synchronized long getMinInterval() {
+    double duty = getDutyCycle();
+    if (duty >= 1) {
+      return 0;
+    }
+    return (long) (averageLatency * (1 / duty - 1));
+  }
+
+  private double getDutyCycle() {
+    double duty;
+    switch (thermalStatus) {
+    case THERMAL_STATUS_NONE:
+    case THERMAL_STATUS_LIGHT:
+      duty = 1;
+      break;
+    case THERMAL_STATUS_MODERATE:
+      duty = 0.5;
+      break;
+    case THERMAL_STATUS_SEVERE:
+      duty = 0.25;
+      break;
+    default:
+      duty = 0.1;
+      break;
+    }
+
+    if (averageLatency > SLOW_LATENCY_NANOS) {
+      duty = Math.min(duty, 0.5);
+    }
+    return duty;
+  }
+
+  private void pollThermalStatus(long nowNanos) {
+    if (getCurrentThermalStatus == null || nowNanos - lastThermalPoll < THERMAL_POLL_NANOS) {
+      return;
+    }
+    lastThermalPoll = nowNanos;
+    try {
+      thermalStatus = (Integer) getCurrentThermalStatus.invoke(powerManager);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Keep the last known status.
+    }
+  }
+
+  /**
+   * Samples the luma on a coarse grid and compares it with the previous sample.
+   *
+   * @return true if the scene changed noticeably.
+   */
+  private boolean updateSignature(ByteBuffer luma, int rowStride, int pixelStride, int width, int height) {
+    int difference = 0;
+    int i = 0;
+    for (int gridY = 0; gridY < SIGNATURE_GRID; gridY++) {
+      int rowStart = ((2 * gridY + 1) * height / (2 * SIGNATURE_GRID)) * rowStride;
+      for (int gridX = 0; gridX < SIGNATURE_GRID; gridX++) {
+        int x = (2 * gridX + 1) * width / (2 * SIGNATURE_GRID);
+        int value = luma.get(rowStart + x * pixelStride) & 0xff;
+        difference += Math.abs(value - signature[i]);
+        signature[i++] = value;
+      }
+    }
+
+    boolean changed = hasSignature && difference / signature.length > SCENE_CHANGE_THRESHOLD;
+    hasSignature = true;
+    return changed;
+  }
+
+  public long getAnalyzedFrames() {
+    return analyzedFrames;
+  }
+
+  public long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  /** Returns the last PowerManager.THERMAL_STATUS_* read, 0 if there is none. */
+  public int getThermalStatus() {
+    return thermalStatus;
+  }
+}
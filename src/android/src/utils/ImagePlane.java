@@ -0,0 +1,38 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+
+/** Adapts the planes of an {@link Image} to {@link YuvPlane}. */
+public class ImagePlane implements YuvPlane {
+
+  private final Image.Plane plane;
+
+  public ImagePlane(Image.Plane plane) {
+    this.plane = plane;
+  }
+
+  public static YuvPlane[] wrap(Image.Plane[] planes) {
+    YuvPlane[] result = new YuvPlane[planes.length];
+    for (int i = 0; i < planes.length; i++) {
+      result[i] = new ImagePlane(planes[i]);
+    }
+    return result;
+  }
+
+  @Override
+  public ByteBuffer getBuffer() {
+    return plane.getBuffer();
+  }
+
+  @Override
+  public int getRowStride() {
+    return plane.getRowStride();
+  }
+
+  @Override
+  public int getPixelStride() {
+    return plane.getPixelStride();
+  }
+}
@@ -0,0 +1,116 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, cheap enough to be updated for every frame
+ * from any thread.
+ *
+ * <p>
+ * Durations are counted in microseconds in logarithmic buckets with four
+ * buckets per power of two, so percentiles are accurate to about 20 percent
+ * over the whole range from one microsecond to hours.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKETS = 4;
+  private static final int BUCKETS = 36 * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    buckets.incrementAndGet(getBucket(micros));
+    count.incrementAndGet();
+    sum.addAndGet(micros);
+
+    long current = max.get();
+    while (micros > current && !max.compareAndSet(current, micros)) {
+      current = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Returns the upper bound of the bucket holding the given percentile in
+   * microseconds, 0 if nothing was recorded.
+   *
+   * @param percentile between 0 and 1.
+   */
+  public long getPercentile(double percentile) {
+    long total = 0;
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = buckets.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(percentile * total);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= Math.max(1, rank)) {
+        return Math.min(getUpperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /** Returns count, mean, p50, p95, p99 and max, durations in milliseconds. */
+  public JSONObject toJSON() throws JSONException {
+    long samples = count.get();
+    JSONObject result = new JSONObject();
+    result.put("count", samples);
+    result.put("mean", samples == 0 ? 0 : sum.get() / (double) samples / 1000);
+    result.put("p50", getPercentile(0.5) / 1000.0);
+    result.put("p95", getPercentile(0.95) / 1000.0);
+    result.put("p99", getPercentile(0.99) / 1000.0);
+    result.put("max", max.get() / 1000.0);
+    return result;
+  }
+
+  /**
+   * Values below 4 get a bucket each, above that every power of two is split
+   * into four buckets by the two bits after the highest one.
+   */
+  private static int getBucket(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+    int subBucket = (int) (micros >> (highestBit - 2)) & (SUB_BUCKETS - 1);
+    return Math.min(BUCKETS - 1, (highestBit - 1) * SUB_BUCKETS + subBucket);
+  }
+
+  private static long getUpperBound(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int highestBit = bucket / SUB_BUCKETS + 1;
+    int subBucket = bucket % SUB_BUCKETS;
+    return ((long) (SUB_BUCKETS + subBucket + 1) << (highestBit - 2)) - 1;
+  }
+}
@@ -0,0 +1,124 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide latency histograms and frame counters of the scan pipeline.
+ *
+ * <p>
+ * Every stage is timed with {@link #begin} and {@link #end}. With tracing
+ * enabled the stages also show up as sections in Perfetto and systrace
+ * captures.
+ */
+public final class ScanStats {
+
+  /** Copying the detector region out of the YUV planes. */
+  public static final LatencyHistogram PLANE_COPY = new LatencyHistogram();
+  /** Encoding the NV21 copy to JPEG, bitmap mode only. */
+  public static final LatencyHistogram JPEG_ENCODE = new LatencyHistogram();
+  /** Decoding the JPEG into a bitmap, bitmap mode only. */
+  public static final LatencyHistogram JPEG_DECODE = new LatencyHistogram();
+  /** Scoring the sharpness of the detector region. */
+  public static final LatencyHistogram SHARPNESS = new LatencyHistogram();
+  /** The whole first pipeline stage, from frame arrival to the converted frame. */
+  public static final LatencyHistogram CONVERSION = new LatencyHistogram();
+  /** Time a converted frame waits for the detector. */
+  public static final LatencyHistogram QUEUE_WAIT = new LatencyHistogram();
+  /** ML Kit's BarcodeScanner.process. */
+  public static final LatencyHistogram DETECTION = new LatencyHistogram();
+  /** Time from the scan request to the first barcode read. */
+  public static final LatencyHistogram TIME_TO_FIRST_DECODE = new LatencyHistogram();
+  /** Time to the first barcode of scans that metered the detector region. */
+  public static final LatencyHistogram TIME_TO_FIRST_DECODE_METERED = new LatencyHistogram();
+  /** Time to the first barcode of scans with the default metering. */
+  public static final LatencyHistogram TIME_TO_FIRST_DECODE_UNMETERED = new LatencyHistogram();
+
+  public static final AtomicLong FRAMES_ANALYZED = new AtomicLong();
+  public static final AtomicLong FRAMES_DROPPED = new AtomicLong();
+  /** Frames skipped before conversion because they were too blurry. */
+  public static final AtomicLong FRAMES_BLURRY = new AtomicLong();
+
+  private static volatile boolean tracing;
+
+  private ScanStats() {
+  }
+
+  /** Enables android.os.Trace sections around the timed stages. */
+  public static void setTracing(boolean enabled) {
+    tracing = enabled;
+  }
+
+  /**
+   * Starts timing a stage.
+   *
+   * @return the start time to pass to {@link #end}.
+   */
+  public static long begin(String section) {
+    if (tracing) {
+      Trace.beginSection(section);
+    }
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  /** Ends a stage started on the same thread by {@link #begin}. */
+  public static long end(LatencyHistogram histogram, long start) {
+    long duration = SystemClock.elapsedRealtimeNanos() - start;
+    histogram.record(duration);
+    if (tracing) {
+      Trace.endSection();
+    }
+    return duration;
+  }
+
+  /**
+   * Records the time to the first barcode of a scan, also split by whether
+   * autofocus and exposure were metered on the detector region.
+   */
+  public static void recordTimeToFirstDecode(long nanos, boolean metered) {
+    TIME_TO_FIRST_DECODE.record(nanos);
+    (metered ? TIME_TO_FIRST_DECODE_METERED : TIME_TO_FIRST_DECODE_UNMETERED).record(nanos);
+  }
+
+  public static void reset() {
+    PLANE_COPY.reset();
+    JPEG_ENCODE.reset();
+    JPEG_DECODE.reset();
+    SHARPNESS.reset();
+    CONVERSION.reset();
+    QUEUE_WAIT.reset();
+    DETECTION.reset();
+    TIME_TO_FIRST_DECODE.reset();
+    TIME_TO_FIRST_DECODE_METERED.reset();
+    TIME_TO_FIRST_DECODE_UNMETERED.reset();
+    FRAMES_ANALYZED.set(0);
+    FRAMES_DROPPED.set(0);
+    FRAMES_BLURRY.set(0);
+  }
+
+  public static JSONObject toJSON() throws JSONException {
+    JSONObject latencies = new JSONObject();
+    latencies.put("planeCopy", PLANE_COPY.toJSON());
+    latencies.put("jpegEncode", JPEG_ENCODE.toJSON());
+    latencies.put("jpegDecode", JPEG_DECODE.toJSON());
+    latencies.put("sharpness", SHARPNESS.toJSON());
+    latencies.put("conversion", CONVERSION.toJSON());
+    latencies.put("queueWait", QUEUE_WAIT.toJSON());
+    latencies.put("detection", DETECTION.toJSON());
+    latencies.put("timeToFirstDecode", TIME_TO_FIRST_DECODE.toJSON());
+    latencies.put("timeToFirstDecodeMetered", TIME_TO_FIRST_DECODE_METERED.toJSON());
+    latencies.put("timeToFirstDecodeUnmetered", TIME_TO_FIRST_DECODE_UNMETERED.toJSON());
+
+    JSONObject result = new JSONObject();
+    result.put("latencies", latencies);
+    result.put("framesAnalyzed", FRAMES_ANALYZED.get());
+    result.put("framesDropped", FRAMES_DROPPED.get());
+    result.put("framesBlurry", FRAMES_BLURRY.get());
+    return result;
+  }
+}
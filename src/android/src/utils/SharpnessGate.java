@@ -0,0 +1,107 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rejects blurry frames before they are converted and handed to ML Kit.
+ *
+ * <p>
+ * The sharpness of a frame is the variance of the Laplacian of its luma, taken
+ * at a grid of at most {@link #GRID} x {@link #GRID} points of the detector
+ * region. Motion blur and defocus flatten the edges and with them the
+ * Laplacian. What counts as sharp depends on the scene and the camera, so the
+ * threshold follows the sharpest recent frames: a frame is skipped if it
+ * reaches less than {@link #RELATIVE_THRESHOLD} of their score. The peak score
+ * decays, so the threshold adapts when the scene becomes less textured, and
+ * after {@link #MAX_SKIPS} skipped frames in a row one is let through anyway.
+ */
+public class SharpnessGate {
+
+  static final int GRID = 64;
+  static final double RELATIVE_THRESHOLD = 0.4;
+  static final int MAX_SKIPS = 5;
+
+  // Share of the peak score kept per frame, and the score below which every
+  // frame is too flat to judge and let through.
+  private static final double PEAK_DECAY = 0.95;
+  private static final double MIN_THRESHOLD = 20;
+
+  private double peak;
+  private int skipsInRow;
+
+  private volatile double lastScore;
+  private volatile double threshold;
+  private volatile long passedFrames;
+  private volatile long skippedFrames;
+
+  /**
+   * Scores the region of the Y plane and decides whether the frame is sharp
+   * enough to analyze. Call on the analyzer thread.
+   *
+   * @param luma the Y plane of the frame.
+   */
+  public boolean accept(ByteBuffer luma, int rowStride, int pixelStride, int left, int top, int width, int height) {
+    double score = score(luma, rowStride, pixelStride, left, top, width, height);
+    peak = Math.max(score, peak * PEAK_DECAY);
+    double currentThreshold = Math.max(MIN_THRESHOLD, RELATIVE_THRESHOLD * peak);
+    lastScore = score;
+    threshold = currentThreshold;
+
+    if (score >= currentThreshold || score < MIN_THRESHOLD || skipsInRow >= MAX_SKIPS) {
+      skipsInRow = 0;
+      passedFrames++;
+      return true;
+    }
+    skipsInRow++;
+    skippedFrames++;
+    return false;
+  }
+
+  /** Returns the score of the last frame. */
+  public double getLastScore() {
+    return lastScore;
+  }
+
+  /** Returns the score the last frame had to reach. */
+  public double getThreshold() {
+    return threshold;
+  }
+
+  public long getPassedFrames() {
+    return passedFrames;
+  }
+
+  public long getSkippedFrames() {
+    return skippedFrames;
+  }
+
+  /**
+   * Returns the variance of the 4-neighbour Laplacian at a grid of points inside
+   * the region.
+   */
+  static double score(ByteBuffer luma, int rowStride, int pixelStride, int left, int top, int width, int height) {
+    if (width < 3 || height < 3) {
+      return 0;
+    }
+    int stepX = Math.max(1, (width - 2) / GRID);
+    int stepY = Math.max(1, (height - 2) / GRID);
+
+    long sum = 0;
+    long sumOfSquares = 0;
+    int count = 0;
+    for (int y = top + 1; y < top + height - 1; y += stepY) {
+      int row = y * rowStride;
+      for (int x = left + 1; x < left + width - 1; x += stepX) {
+        int center = row + x * pixelStride;
+        int laplacian = 4 * (luma.get(center) & 0xff) - (luma.get(center - pixelStride) & 0xff)
+            - (luma.get(center + pixelStride) & 0xff) - (luma.get(center - rowStride) & 0xff)
+            - (luma.get(center + rowStride) & 0xff);
+        sum += laplacian;
+        sumOfSquares += laplacian * laplacian;
+        count++;
+      }
+    }
+    double mean = (double) sum / count;
+    return (double) sumOfSquares / count - mean * mean;
+  }
+}
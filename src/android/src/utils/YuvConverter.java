@@ -0,0 +1,454 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Converts YUV_420_888 planes to NV21.
+ *
+ * <p>
+ * Only uses plain Java, so the conversion and the crop math can be run and
+ * measured on a desktop JVM. {@link BitmapUtils} adapts the camera planes and
+ * rectangles to it.
+ */
+public class YuvConverter {
+
+  // Row sized scratch array for copyRows, kept per thread so conversions do not
+  // allocate once the widest row has been seen.
+  private static final ThreadLocal<byte[]> ROW_SCRATCH = new ThreadLocal<>();
+  private static final ThreadLocal<int[]> SUM_SCRATCH = new ThreadLocal<>();
+
+  /** Downscale factor from which pixels are sampled instead of averaged. */
+  public static final int SAMPLING_FACTOR = 4;
+
+  /**
+   * Converts YUV_420_888 to NV21 into 'out', which must hold at least
+   * width * height * 3 / 2 bytes.
+   *
+   * <p>
+   * The NV21 format consists of a single byte array containing the Y, U and V
+   * values. For an image of size S, the first S positions of the array contain
+   * all the Y values. The remaining positions contain interleaved V and U values.
+   * U and V are subsampled by a factor of 2 in both dimensions, so there are S/4
+   * U values and S/4 V values. In summary, the NV21 array will contain S Y values
+   * followed by S/4 VU values: YYYYYYYYYYYYYY(...)YVUVUVUVU(...)VU
+   *
+   * <p>
+   * YUV_420_888 is a generic format that can describe any YUV image where U and V
+   * are subsampled by a factor of 2 in both dimensions. The Y plane is
+   * guaranteed not to be interleaved, so we can just copy its values into the
+   * first part of the NV21 array. The U and V planes may already have the
+   * representation in the NV21 format. This happens if the planes share the same
+   * buffer, the V buffer is one position before the U buffer and the planes have
+   * a pixelStride of 2. If this is case, we can just copy them to the NV21 array.
+   */
+  public static void toNV21(YuvPlane[] planes, int width, int height, byte[] out) {
+    int imageSize = width * height;
+
+    if (areUVPlanesNV21(planes, width, height)) {
+      // Copy the Y values.
+      planes[0].getBuffer().get(out, 0, imageSize);
+
+      ByteBuffer uBuffer = planes[1].getBuffer();
+      ByteBuffer vBuffer = planes[2].getBuffer();
+      // Get the first V value from the V buffer, since the U buffer does not contain
+      // it.
+      vBuffer.get(out, imageSize, 1);
+      // Copy the first U value and the remaining VU values from the U buffer.
+      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
+    } else {
+      // Fallback to copying the UV values one by one, which is slower but also works.
+      // Unpack Y.
+      unpackPlane(planes[0], width, height, out, 0, 1);
+      // Unpack U.
+      unpackPlane(planes[1], width, height, out, imageSize + 1, 2);
+      // Unpack V.
+      unpackPlane(planes[2], width, height, out, imageSize, 2);
+    }
+  }
+
+  /**
+   * Converts the region of the given size at 'left', 'top' to NV21 into 'out',
+   * which must hold at least width * height * 3 / 2 bytes.
+   *
+   * <p>
+   * Only the pixels inside the region are copied, so the cost scales with the
+   * size of the region instead of the size of the sensor frame. The region has
+   * to be aligned to even coordinates, since U and V are subsampled by a factor
+   * of 2.
+   */
+  public static void toNV21(YuvPlane[] planes, int left, int top, int width, int height, byte[] out) {
+    int cropSize = width * height;
+
+    // Unpack Y.
+    unpackPlane(planes[0], left, top, width, height, 1, out, 0, 1);
+    // Unpack U.
+    unpackPlane(planes[1], left, top, width, height, 2, out, cropSize + 1, 2);
+    // Unpack V.
+    unpackPlane(planes[2], left, top, width, height, 2, out, cropSize, 2);
+  }
+
+  /**
+   * Converts the region of the given size at 'left', 'top' to NV21 at 1 /
+   * 'factor' of its size into 'out', which must hold at least
+   * {@link #getDownscaledSize} bytes.
+   *
+   * <p>
+   * Up to a factor of {@link #SAMPLING_FACTOR}, every output pixel is the average
+   * of 'factor' x 'factor' luma values, which keeps thin bars visible. From that
+   * factor on only the center pixel of every block is read, so the cost falls
+   * with the square of the factor instead of staying at that of the region. The
+   * chroma is set to neutral gray, since the detector only looks at the luma.
+   * The output dimensions are width / factor and height / factor, rounded down to
+   * even numbers.
+   */
+  public static void toDownscaledNV21(YuvPlane[] planes, int left, int top, int width, int height, int factor,
+      byte[] out) {
+    int outWidth = (width / factor) & ~1;
+    int outHeight = (height / factor) & ~1;
+    int outSize = outWidth * outHeight;
+    if (outSize == 0) {
+      return;
+    }
+
+    YuvPlane plane = planes[0];
+    ByteBuffer buffer = plane.getBuffer();
+    int rowStride = plane.getRowStride();
+    int pixelStride = plane.getPixelStride();
+
+    if (factor >= SAMPLING_FACTOR) {
+      sampleLuma(buffer, rowStride, pixelStride, left, top, outWidth, outHeight, factor, out);
+    } else if (factor == 2) {
+      averageLumaByTwo(buffer, rowStride, pixelStride, left, top, outWidth, outHeight, out);
+    } else {
+      averageLuma(buffer, rowStride, pixelStride, left, top, outWidth, outHeight, factor, out);
+    }
+    buffer.rewind();
+
+    Arrays.fill(out, outSize, outSize + 2 * (outSize / 4), (byte) 128);
+  }
+
+  /**
+   * Averages 2 x 2 blocks. Both rows of a block are read in one go and summed
+   * pairwise, without the per block loops of {@link #averageLuma}.
+   */
+  private static void averageLumaByTwo(ByteBuffer buffer, int rowStride, int pixelStride, int left, int top,
+      int outWidth, int outHeight, byte[] out) {
+    int rowLength = (outWidth * 2 - 1) * pixelStride + 1;
+    // Both rows of a block, one after the other.
+    byte[] scratch = getRowScratch(2 * rowLength);
+    int next = pixelStride;
+    int below = rowLength;
+
+    int outputPos = 0;
+    int rowStart = top * rowStride + left * pixelStride;
+    for (int outRow = 0; outRow < outHeight; outRow++) {
+      buffer.position(rowStart);
+      buffer.get(scratch, 0, rowLength);
+      buffer.position(rowStart + rowStride);
+      buffer.get(scratch, rowLength, rowLength);
+      int inputPos = 0;
+      for (int outCol = 0; outCol < outWidth; outCol++) {
+        int sum = (scratch[inputPos] & 0xff) + (scratch[inputPos + next] & 0xff) + (scratch[inputPos + below] & 0xff)
+            + (scratch[inputPos + below + next] & 0xff);
+        out[outputPos++] = (byte) (sum >> 2);
+        inputPos += 2 * pixelStride;
+      }
+      rowStart += 2 * rowStride;
+    }
+  }
+
+  /** Averages 'factor' x 'factor' blocks, for factors other than 2. */
+  private static void averageLuma(ByteBuffer buffer, int rowStride, int pixelStride, int left, int top,
+      int outWidth, int outHeight, int factor, byte[] out) {
+    int rowLength = (outWidth * factor - 1) * pixelStride + 1;
+    byte[] scratch = getRowScratch(rowLength);
+    int[] sums = getSumScratch(outWidth);
+    int area = factor * factor;
+
+    int outputPos = 0;
+    int rowStart = top * rowStride + left * pixelStride;
+    for (int outRow = 0; outRow < outHeight; outRow++) {
+      for (int i = 0; i < outWidth; i++) {
+        sums[i] = 0;
+      }
+      for (int k = 0; k < factor; k++) {
+        buffer.position(rowStart);
+        buffer.get(scratch, 0, rowLength);
+        int inputPos = 0;
+        for (int outCol = 0; outCol < outWidth; outCol++) {
+          int sum = 0;
+          for (int j = 0; j < factor; j++) {
+            sum += scratch[inputPos] & 0xff;
+            inputPos += pixelStride;
+          }
+          sums[outCol] += sum;
+        }
+        rowStart += rowStride;
+      }
+      for (int outCol = 0; outCol < outWidth; outCol++) {
+        out[outputPos++] = (byte) (sums[outCol] / area);
+      }
+    }
+  }
+
+  /**
+   * Picks the center pixel of every 'factor' x 'factor' block, reading only one
+   * row per block row.
+   */
+  private static void sampleLuma(ByteBuffer buffer, int rowStride, int pixelStride, int left, int top,
+      int outWidth, int outHeight, int factor, byte[] out) {
+    int center = factor / 2;
+    int step = factor * pixelStride;
+    int rowLength = (outWidth - 1) * step + 1;
+    byte[] scratch = getRowScratch(rowLength);
+
+    int outputPos = 0;
+    int rowStart = (top + center) * rowStride + (left + center) * pixelStride;
+    for (int outRow = 0; outRow < outHeight; outRow++) {
+      buffer.position(rowStart);
+      buffer.get(scratch, 0, rowLength);
+      for (int inputPos = 0; inputPos < rowLength; inputPos += step) {
+        out[outputPos++] = scratch[inputPos];
+      }
+      rowStart += factor * rowStride;
+    }
+  }
+
+  /**
+   * Returns width, height and number of bytes of the NV21 image
+   * {@link #toDownscaledNV21} produces.
+   */
+  public static int[] getDownscaledSize(int width, int height, int factor) {
+    return getDownscaledSize(width, height, factor, new int[3]);
+  }
+
+  /** Like {@link #getDownscaledSize(int, int, int)}, writing into 'out', which is returned. */
+  public static int[] getDownscaledSize(int width, int height, int factor, int[] out) {
+    int outWidth = (width / factor) & ~1;
+    int outHeight = (height / factor) & ~1;
+    int outSize = outWidth * outHeight;
+    out[0] = outWidth;
+    out[1] = outHeight;
+    out[2] = outSize + 2 * (outSize / 4);
+    return out;
+  }
+
+  /**
+   * Returns the clockwise rotation that turns a camera frame upright, the one
+   * handed to ML Kit. With 'rotateCamera' the sensor is mounted upside down,
+   * which the preview undoes by flipping both axes, i.e. by another 180 degrees.
+   */
+  public static int getUprightRotation(int rotationDegrees, boolean rotateCamera) {
+    int rotation = rotateCamera ? rotationDegrees + 180 : rotationDegrees;
+    return (rotation % 360 + 360) % 360;
+  }
+
+  /**
+   * Maps a rectangle given in upright coordinates, i.e. after rotating the frame
+   * by 'rotationDegrees', back to the coordinates of the sensor frame of size
+   * 'width' x 'height'.
+   *
+   * <p>
+   * The result is clamped to the frame and aligned to even coordinates, so it
+   * can be used to address the subsampled U and V planes as well.
+   *
+   * @return left, top, right and bottom.
+   */
+  public static int[] toSensorRect(int uprightLeft, int uprightTop, int uprightRight, int uprightBottom, int width,
+      int height, int rotationDegrees) {
+    return toSensorRect(uprightLeft, uprightTop, uprightRight, uprightBottom, width, height, rotationDegrees,
+        new int[4]);
+  }
+
+  /**
+   * Like {@link #toSensorRect(int, int, int, int, int, int, int)}, writing left,
+   * top, right and bottom into 'out', which is returned.
+   */
+  public static int[] toSensorRect(int uprightLeft, int uprightTop, int uprightRight, int uprightBottom, int width,
+      int height, int rotationDegrees, int[] out) {
+    int left, top, right, bottom;
+    switch ((rotationDegrees % 360 + 360) % 360) {
+    case 90:
+      left = uprightTop;
+      top = height - uprightRight;
+      right = uprightBottom;
+      bottom = height - uprightLeft;
+      break;
+    case 180:
+      left = width - uprightRight;
+      top = height - uprightBottom;
+      right = width - uprightLeft;
+      bottom = height - uprightTop;
+      break;
+    case 270:
+      left = width - uprightBottom;
+      top = uprightLeft;
+      right = width - uprightTop;
+      bottom = uprightRight;
+      break;
+    default:
+      left = uprightLeft;
+      top = uprightTop;
+      right = uprightRight;
+      bottom = uprightBottom;
+      break;
+    }
+
+    left = Math.max(0, left) & ~1;
+    top = Math.max(0, top) & ~1;
+    right = left + ((Math.min(width, right) - left) & ~1);
+    bottom = top + ((Math.min(height, bottom) - top) & ~1);
+    out[0] = left;
+    out[1] = top;
+    out[2] = right;
+    out[3] = bottom;
+    return out;
+  }
+
+  /**
+   * Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format.
+   */
+  static boolean areUVPlanesNV21(YuvPlane[] planes, int width, int height) {
+    int imageSize = width * height;
+
+    ByteBuffer uBuffer = planes[1].getBuffer();
+    ByteBuffer vBuffer = planes[2].getBuffer();
+
+    // Backup buffer properties.
+    int vBufferPosition = vBuffer.position();
+    int uBufferLimit = uBuffer.limit();
+
+    // Advance the V buffer by 1 byte, since the U buffer will not contain the first
+    // V value.
+    vBuffer.position(vBufferPosition + 1);
+    // Chop off the last byte of the U buffer, since the V buffer will not contain
+    // the last U value.
+    uBuffer.limit(uBufferLimit - 1);
+
+    // Check that the buffers are equal and have the expected number of elements.
+    boolean areNV21 = (vBuffer.remaining() == (2 * imageSize / 4 - 2)) && (vBuffer.compareTo(uBuffer) == 0);
+
+    // Restore buffers to their initial state.
+    vBuffer.position(vBufferPosition);
+    uBuffer.limit(uBufferLimit);
+
+    return areNV21;
+  }
+
+  /**
+   * Unpack an image plane into a byte array.
+   *
+   * The input plane data will be copied in 'out', starting at 'offset' and every
+   * pixel will be spaced by 'pixelStride'. Note that there is no row padding on
+   * the output.
+   */
+  static void unpackPlane(YuvPlane plane, int width, int height, byte[] out, int offset, int pixelStride) {
+    ByteBuffer buffer = plane.getBuffer();
+    buffer.rewind();
+
+    // Compute the size of the current plane.
+    // We assume that it has the aspect ratio as the original image.
+    int numRow = (buffer.limit() + plane.getRowStride() - 1) / plane.getRowStride();
+    if (numRow == 0) {
+      return;
+    }
+    int scaleFactor = height / numRow;
+    int numCol = width / scaleFactor;
+
+    // Extract the data in the output buffer.
+    copyRows(buffer, plane.getRowStride(), plane.getPixelStride(), 0, numRow, numCol, out, offset, pixelStride);
+  }
+
+  /**
+   * Unpack a region of an image plane into a byte array.
+   *
+   * The region is given in full resolution coordinates and is divided by
+   * 'subsampling' to address the plane. It will be copied in 'out', starting at
+   * 'offset' and every pixel will be spaced by 'outPixelStride'.
+   */
+  static void unpackPlane(YuvPlane plane, int left, int top, int width, int height, int subsampling, byte[] out,
+      int offset, int outPixelStride) {
+    ByteBuffer buffer = plane.getBuffer();
+    int rowStride = plane.getRowStride();
+    int pixelStride = plane.getPixelStride();
+
+    int numRow = height / subsampling;
+    int numCol = width / subsampling;
+
+    int rowStart = (top / subsampling) * rowStride + (left / subsampling) * pixelStride;
+    copyRows(buffer, rowStride, pixelStride, rowStart, numRow, numCol, out, offset, outPixelStride);
+  }
+
+  /**
+   * Copies 'numRow' rows of 'numCol' pixels each out of a plane buffer.
+   *
+   * <p>
+   * Rows are read with one bulk get each, so the per pixel cost is a plain array
+   * access instead of a bounds checked absolute {@link ByteBuffer#get(int)}. Only
+   * the bytes that hold pixels are read from each row, so neither the row
+   * padding nor the missing padding after the last row of a plane is touched.
+   * The position of the buffer is rewound afterwards.
+   */
+  private static void copyRows(ByteBuffer buffer, int rowStride, int pixelStride, int rowStart, int numRow,
+      int numCol, byte[] out, int offset, int outPixelStride) {
+    if (numRow <= 0 || numCol <= 0) {
+      return;
+    }
+
+    int outputPos = offset;
+    if (pixelStride == 1 && outPixelStride == 1) {
+      // Rows are contiguous on both sides, copy them straight into the output.
+      for (int row = 0; row < numRow; row++) {
+        buffer.position(rowStart);
+        buffer.get(out, outputPos, numCol);
+        outputPos += numCol;
+        rowStart += rowStride;
+      }
+    } else if (pixelStride == 1 || pixelStride == 2) {
+      // Planar (1) or semi-planar (2) input, read each row into a scratch array and
+      // spread or pick the pixels from there.
+      int rowLength = (numCol - 1) * pixelStride + 1;
+      byte[] scratch = getRowScratch(rowLength);
+      for (int row = 0; row < numRow; row++) {
+        buffer.position(rowStart);
+        buffer.get(scratch, 0, rowLength);
+        for (int inputPos = 0; inputPos < rowLength; inputPos += pixelStride) {
+          out[outputPos] = scratch[inputPos];
+          outputPos += outPixelStride;
+        }
+        rowStart += rowStride;
+      }
+    } else {
+      // Unusual layout, copy the values one by one.
+      for (int row = 0; row < numRow; row++) {
+        int inputPos = rowStart;
+        for (int col = 0; col < numCol; col++) {
+          out[outputPos] = buffer.get(inputPos);
+          outputPos += outPixelStride;
+          inputPos += pixelStride;
+        }
+        rowStart += rowStride;
+      }
+    }
+    buffer.rewind();
+  }
+
+  private static int[] getSumScratch(int length) {
+    int[] scratch = SUM_SCRATCH.get();
+    if (scratch == null || scratch.length < length) {
+      scratch = new int[length];
+      SUM_SCRATCH.set(scratch);
+    }
+    return scratch;
+  }
+
+  private static byte[] getRowScratch(int length) {
+    byte[] scratch = ROW_SCRATCH.get();
+    if (scratch == null || scratch.length < length) {
+      scratch = new byte[length];
+      ROW_SCRATCH.set(scratch);
+    }
+    return scratch;
+  }
+}
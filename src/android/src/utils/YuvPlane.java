@@ -0,0 +1,19 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One plane of a YUV_420_888 image.
+ *
+ * <p>
+ * Mirrors the accessors of {@link android.media.Image.Plane}, so the conversion
+ * in {@link YuvConverter} does not depend on Android classes and can run on a
+ * desktop JVM against synthetic buffers.
+ */
+public interface YuvPlane {
+  ByteBuffer getBuffer();
+
+  int getRowStride();
+
+  int getPixelStride();
+}
@@ -0,0 +1,258 @@
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.YuvConverter;
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.YuvPlane;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the YUV_420_888 to NV21 conversion on a desktop JVM.
+ *
+ * <p>
+ * Runs every conversion path against synthetic planes in the layouts cameras
+ * deliver (semi-planar with interleaved U and V, planar, padded rows, odd
+ * sizes), checks the output against a straightforward per pixel conversion and
+ * prints the time and the bytes allocated per frame. See the README for how to
+ * run it.
+ */
+public class ConversionBenchmark {
+
+  private static final int[][] SIZES = { { 640, 480 }, { 1280, 720 }, { 1920, 1080 }, { 1279, 719 } };
+  private static final int WARMUP_MILLIS = 500;
+  private static final int MEASURE_MILLIS = 1000;
+
+  private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+      .getThreadMXBean();
+
+  public static void main(String[] args) {
+    System.out.printf("%-14s %-12s %-6s %12s %12s%n", "layout", "size", "crop", "ns/frame", "bytes/frame");
+    for (int[] size : SIZES) {
+      for (Layout layout : Layout.values()) {
+        Frame frame = new Frame(layout, size[0], size[1]);
+        run(frame, false, 1);
+        run(frame, true, 1);
+        run(frame, true, 2);
+        run(frame, true, 3);
+        run(frame, true, 4);
+      }
+    }
+  }
+
+  private static void run(final Frame frame, final boolean crop, final int factor) {
+    final int left;
+    final int top;
+    final int width;
+    final int height;
+    if (crop) {
+      // The detector region of the default detectorSize, as the analyzer computes it.
+      int[] rect = YuvConverter.toSensorRect(frame.height / 5, frame.height / 5, frame.height * 4 / 5,
+          frame.height * 4 / 5, frame.width, frame.height, 90);
+      left = rect[0];
+      top = rect[1];
+      width = rect[2] - rect[0];
+      height = rect[3] - rect[1];
+    } else {
+      // The full frame path expects even sizes.
+      left = 0;
+      top = 0;
+      width = frame.width & ~1;
+      height = frame.height & ~1;
+      if (width != frame.width || height != frame.height) {
+        return;
+      }
+    }
+
+    final byte[] out = new byte[width * height + 2 * (width * height / 4)];
+    Runnable conversion = new Runnable() {
+      @Override
+      public void run() {
+        if (factor > 1) {
+          YuvConverter.toDownscaledNV21(frame.planes, left, top, width, height, factor, out);
+        } else if (crop) {
+          YuvConverter.toNV21(frame.planes, left, top, width, height, out);
+        } else {
+          YuvConverter.toNV21(frame.planes, width, height, out);
+        }
+      }
+    };
+
+    conversion.run();
+    byte[] expected = factor > 1 ? frame.referenceDownscaledNV21(left, top, width, height, factor)
+        : frame.referenceNV21(left, top, width, height);
+    if (!Arrays.equals(expected, Arrays.copyOf(out, expected.length))) {
+      throw new AssertionError("Wrong output for " + frame.layout + " " + frame.width + "x" + frame.height
+          + (crop ? " cropped" : "") + (factor > 1 ? " at 1/" + factor : ""));
+    }
+
+    measure(conversion, WARMUP_MILLIS);
+    long threadId = Thread.currentThread().getId();
+    long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    long frames = measure(conversion, MEASURE_MILLIS);
+    long elapsed = System.nanoTime() - start;
+    long allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+    System.out.printf("%-14s %-12s %-6s %12d %12d%n", frame.layout, frame.width + "x" + frame.height,
+        crop ? (factor > 1 ? "1/" + factor : "yes") : "no", elapsed / frames, allocated / frames);
+  }
+
+  private static long measure(Runnable conversion, long millis) {
+    long end = System.nanoTime() + millis * 1000000L;
+    long frames = 0;
+    while (System.nanoTime() < end) {
+      for (int i = 0; i < 16; i++) {
+        conversion.run();
+      }
+      frames += 16;
+    }
+    return frames;
+  }
+
+  private enum Layout {
+    /** U and V share one buffer, V first, like most camera HALs deliver it. */
+    SEMI_PLANAR,
+    /** Three separate planes with a pixel stride of 1. */
+    PLANAR,
+    /** Semi-planar with row padding and no padding after the last row. */
+    PADDED
+  }
+
+  /** A synthetic YUV_420_888 frame with random content. */
+  private static class Frame {
+    final Layout layout;
+    final int width;
+    final int height;
+    final byte[] y;
+    final byte[] u;
+    final byte[] v;
+    final YuvPlane[] planes;
+
+    Frame(Layout layout, int width, int height) {
+      this.layout = layout;
+      this.width = width;
+      this.height = height;
+
+      int chromaWidth = (width + 1) / 2;
+      int chromaHeight = (height + 1) / 2;
+      Random random = new Random(width * 31 + height);
+      y = new byte[width * height];
+      u = new byte[chromaWidth * chromaHeight];
+      v = new byte[chromaWidth * chromaHeight];
+      random.nextBytes(y);
+      random.nextBytes(u);
+      random.nextBytes(v);
+
+      int padding = layout == Layout.PADDED ? 64 : 0;
+      int yRowStride = width + padding;
+      ByteBuffer yBuffer = ByteBuffer.allocateDirect(yRowStride * (height - 1) + width);
+      for (int row = 0; row < height; row++) {
+        yBuffer.position(row * yRowStride);
+        yBuffer.put(y, row * width, width);
+      }
+      yBuffer.rewind();
+
+      if (layout == Layout.PLANAR) {
+        planes = new YuvPlane[] { new Plane(yBuffer, yRowStride, 1), new Plane(wrap(u), chromaWidth, 1),
+            new Plane(wrap(v), chromaWidth, 1) };
+        return;
+      }
+
+      // V U V U ..., the U plane starts one byte after the V plane.
+      int chromaRowStride = 2 * chromaWidth + padding;
+      ByteBuffer vu = ByteBuffer.allocateDirect(chromaRowStride * (chromaHeight - 1) + 2 * chromaWidth);
+      for (int row = 0; row < chromaHeight; row++) {
+        for (int col = 0; col < chromaWidth; col++) {
+          vu.put(row * chromaRowStride + 2 * col, v[row * chromaWidth + col]);
+          vu.put(row * chromaRowStride + 2 * col + 1, u[row * chromaWidth + col]);
+        }
+      }
+      vu.limit(vu.capacity() - 1);
+      ByteBuffer vBuffer = vu.slice();
+      vu.limit(vu.capacity());
+      vu.position(1);
+      ByteBuffer uBuffer = vu.slice();
+      planes = new YuvPlane[] { new Plane(yBuffer, yRowStride, 1), new Plane(uBuffer, chromaRowStride, 2),
+          new Plane(vBuffer, chromaRowStride, 2) };
+    }
+
+    private static ByteBuffer wrap(byte[] data) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+      buffer.put(data);
+      buffer.rewind();
+      return buffer;
+    }
+
+    /** Converts the region pixel by pixel from the source arrays. */
+    byte[] referenceNV21(int left, int top, int cropWidth, int cropHeight) {
+      int cropSize = cropWidth * cropHeight;
+      byte[] out = new byte[cropSize + 2 * (cropSize / 4)];
+      int chromaWidth = (width + 1) / 2;
+      for (int row = 0; row < cropHeight; row++) {
+        System.arraycopy(y, (top + row) * width + left, out, row * cropWidth, cropWidth);
+      }
+      int pos = cropSize;
+      for (int row = 0; row < cropHeight / 2; row++) {
+        for (int col = 0; col < cropWidth / 2; col++) {
+          int index = (top / 2 + row) * chromaWidth + left / 2 + col;
+          out[pos++] = v[index];
+          out[pos++] = u[index];
+        }
+      }
+      return out;
+    }
+
+    /**
+     * Averages the luma of the region in blocks, or samples their centers from
+     * the sampling factor on, with gray chroma.
+     */
+    byte[] referenceDownscaledNV21(int left, int top, int cropWidth, int cropHeight, int factor) {
+      int[] size = YuvConverter.getDownscaledSize(cropWidth, cropHeight, factor);
+      byte[] out = new byte[size[2]];
+      Arrays.fill(out, (byte) 128);
+      for (int row = 0; row < size[1]; row++) {
+        for (int col = 0; col < size[0]; col++) {
+          if (factor >= YuvConverter.SAMPLING_FACTOR) {
+            out[row * size[0] + col] = y[(top + row * factor + factor / 2) * width + left + col * factor + factor / 2];
+            continue;
+          }
+          int sum = 0;
+          for (int k = 0; k < factor; k++) {
+            for (int j = 0; j < factor; j++) {
+              sum += y[(top + row * factor + k) * width + left + col * factor + j] & 0xff;
+            }
+          }
+          out[row * size[0] + col] = (byte) (sum / (factor * factor));
+        }
+      }
+      return out;
+    }
+  }
+
+  private static class Plane implements YuvPlane {
+    private final ByteBuffer buffer;
+    private final int rowStride;
+    private final int pixelStride;
+
+    Plane(ByteBuffer buffer, int rowStride, int pixelStride) {
+      this.buffer = buffer;
+      this.rowStride = rowStride;
+      this.pixelStride = pixelStride;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+      return buffer;
+    }
+
+    @Override
+    public int getRowStride() {
+      return rowStride;
+    }
+
+    @Override
+    public int getPixelStride() {
+      return pixelStride;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the row copies of {@link YuvConverter} against the per pixel loop they
+ * replaced, on a desktop JVM.
+ *
+ * <p>
+ * Every plane layout the row copy distinguishes is covered: pixel strides 1 to
+ * 3, rows with and without padding, a last row that ends right after its last
+ * pixel, and output pixel strides 1 and 2. Lives in the package of the
+ * converter to reach the package private unpackPlane. See the README for how to
+ * run it.
+ */
+public class CopyRowsCheck {
+
+  private static final int[][] SIZES = { { 1, 1 }, { 2, 3 }, { 7, 5 }, { 64, 48 }, { 321, 17 } };
+  private static final int[] PADDINGS = { 0, 1, 16 };
+
+  private static int checks;
+
+  public static void main(String[] args) {
+    Random random = new Random(42);
+    for (int[] size : SIZES) {
+      for (int pixelStride = 1; pixelStride <= 3; pixelStride++) {
+        for (int padding : PADDINGS) {
+          for (boolean shortLastRow : new boolean[] { false, true }) {
+            Plane plane = new Plane(random, size[0], size[1], pixelStride, padding, shortLastRow);
+            for (int outPixelStride = 1; outPixelStride <= 2; outPixelStride++) {
+              checkPlane(plane, size[0], size[1], outPixelStride);
+              checkRegion(plane, size[0], size[1], outPixelStride);
+            }
+          }
+        }
+      }
+    }
+    System.out.println(checks + " row copy checks passed");
+  }
+
+  /** The whole plane, like the full frame conversion unpacks it. */
+  private static void checkPlane(Plane plane, int width, int height, int outPixelStride) {
+    int offset = 3;
+    byte[] expected = new byte[offset + width * height * outPixelStride];
+    byte[] actual = expected.clone();
+    referenceUnpackPlane(plane, width, height, expected, offset, outPixelStride);
+    YuvConverter.unpackPlane(plane, width, height, actual, offset, outPixelStride);
+    check(Arrays.equals(expected, actual), "plane", plane, width, height, outPixelStride);
+    check(plane.getBuffer().position() == 0, "buffer not rewound", plane, width, height, outPixelStride);
+  }
+
+  /** An inner region and one reaching the last pixel of the last row. */
+  private static void checkRegion(Plane plane, int width, int height, int outPixelStride) {
+    int[][] regions = { { width / 3, height / 3, width / 2, height / 2 },
+        { width / 2, height / 2, width - width / 2, height - height / 2 } };
+    for (int[] region : regions) {
+      int left = region[0];
+      int top = region[1];
+      int regionWidth = region[2];
+      int regionHeight = region[3];
+      byte[] expected = new byte[regionWidth * regionHeight * outPixelStride];
+      byte[] actual = expected.clone();
+      referenceUnpackRegion(plane, left, top, regionWidth, regionHeight, expected, outPixelStride);
+      YuvConverter.unpackPlane(plane, left, top, regionWidth, regionHeight, 1, actual, 0, outPixelStride);
+      check(Arrays.equals(expected, actual), "region " + left + "," + top + " " + regionWidth + "x" + regionHeight,
+          plane, width, height, outPixelStride);
+    }
+  }
+
+  /** The per pixel loop unpackPlane used before the row copies. */
+  private static void referenceUnpackPlane(YuvPlane plane, int width, int height, byte[] out, int offset,
+      int pixelStride) {
+    ByteBuffer buffer = plane.getBuffer();
+    buffer.rewind();
+
+    int numRow = (buffer.limit() + plane.getRowStride() - 1) / plane.getRowStride();
+    if (numRow == 0) {
+      return;
+    }
+    int scaleFactor = height / numRow;
+    int numCol = width / scaleFactor;
+
+    int outputPos = offset;
+    int rowStart = 0;
+    for (int row = 0; row < numRow; row++) {
+      int inputPos = rowStart;
+      for (int col = 0; col < numCol; col++) {
+        out[outputPos] = buffer.get(inputPos);
+        outputPos += pixelStride;
+        inputPos += plane.getPixelStride();
+      }
+      rowStart += plane.getRowStride();
+    }
+  }
+
+  /** The same loop, starting at the region. */
+  private static void referenceUnpackRegion(YuvPlane plane, int left, int top, int width, int height, byte[] out,
+      int pixelStride) {
+    ByteBuffer buffer = plane.getBuffer();
+    int outputPos = 0;
+    int rowStart = top * plane.getRowStride() + left * plane.getPixelStride();
+    for (int row = 0; row < height; row++) {
+      int inputPos = rowStart;
+      for (int col = 0; col < width; col++) {
+        out[outputPos] = buffer.get(inputPos);
+        outputPos += pixelStride;
+        inputPos += plane.getPixelStride();
+      }
+      rowStart += plane.getRowStride();
+    }
+  }
+
+  private static void check(boolean condition, String what, Plane plane, int width, int height,
+      int outPixelStride) {
+    if (!condition) {
+      throw new AssertionError(what + " of " + width + "x" + height + " with pixel stride " + plane.pixelStride
+          + ", row stride " + plane.rowStride + (plane.shortLastRow ? ", short last row" : "")
+          + ", output pixel stride " + outPixelStride);
+    }
+    checks++;
+  }
+
+  private static class Plane implements YuvPlane {
+    final ByteBuffer buffer;
+    final int rowStride;
+    final int pixelStride;
+    final boolean shortLastRow;
+
+    /**
+     * A plane with random content. With 'shortLastRow' the buffer ends right
+     * after the last pixel, like camera planes do, instead of after the padding.
+     */
+    Plane(Random random, int width, int height, int pixelStride, int padding, boolean shortLastRow) {
+      this.pixelStride = pixelStride;
+      this.rowStride = width * pixelStride + padding;
+      this.shortLastRow = shortLastRow;
+      int length = shortLastRow ? rowStride * (height - 1) + (width - 1) * pixelStride + 1 : rowStride * height;
+      byte[] data = new byte[length];
+      random.nextBytes(data);
+      buffer = ByteBuffer.allocateDirect(length);
+      buffer.put(data);
+      buffer.rewind();
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+      return buffer;
+    }
+
+    @Override
+    public int getRowStride() {
+      return rowStride;
+    }
+
+    @Override
+    public int getPixelStride() {
+      return pixelStride;
+    }
+  }
+}
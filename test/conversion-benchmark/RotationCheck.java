@@ -0,0 +1,174 @@
+import com.mobisys.cordova.plugins.mlkit.barcode.scanner.utils.YuvConverter;
+
+/**
+ * Checks the rotation handed to ML Kit and the mapping of the detector region
+ * from upright to sensor coordinates on a desktop JVM.
+ *
+ * <p>
+ * For every sensor rotation, with and without 'rotateCamera', a synthetic
+ * sensor frame with a distinct value per pixel is rotated the way the user sees
+ * it in the preview: by the rotation CameraX reports, and additionally flipped
+ * along both axes with 'rotateCamera', as the preview does. A region cut out of
+ * that upright picture must equal the sensor region {@link YuvConverter}
+ * computes, once that is turned by the rotation handed to ML Kit. See the
+ * README for how to run it.
+ */
+public class RotationCheck {
+
+  private static final int WIDTH = 16;
+  private static final int HEIGHT = 10;
+
+  // Upright regions to map: even aligned, touching the edges and odd ones, which
+  // have to come out aligned and still cover the requested pixels.
+  private static final int[][] REGIONS = { { 2, 2, 8, 6 }, { 0, 0, 10, 16 }, { 4, 6, 10, 14 }, { 3, 5, 7, 9 } };
+
+  private static int checks;
+
+  public static void main(String[] args) {
+    checkRotationTable();
+    for (int rotationDegrees = 0; rotationDegrees < 360; rotationDegrees += 90) {
+      checkMirror(rotationDegrees);
+      for (boolean rotateCamera : new boolean[] { false, true }) {
+        for (int[] region : REGIONS) {
+          checkRegion(rotationDegrees, rotateCamera, region);
+        }
+      }
+    }
+    System.out.println(checks + " rotation checks passed");
+  }
+
+  /** The rotation handed to ML Kit for every sensor rotation. */
+  private static void checkRotationTable() {
+    int[][] expected = { { 0, 0, 180 }, { 90, 90, 270 }, { 180, 180, 0 }, { 270, 270, 90 }, { 360, 0, 180 },
+        { -90, 270, 90 } };
+    for (int[] row : expected) {
+      check(YuvConverter.getUprightRotation(row[0], false) == row[1], "rotation " + row[0]);
+      check(YuvConverter.getUprightRotation(row[0], true) == row[2], "rotation " + row[0] + " with rotateCamera");
+    }
+  }
+
+  /**
+   * With 'rotateCamera' the preview flips the picture along both axes, which the
+   * rotation handed to ML Kit has to reproduce.
+   */
+  private static void checkMirror(int rotationDegrees) {
+    int[][] sensor = sensorFrame();
+    int[][] flipped = flip(rotate(sensor, rotationDegrees));
+    int[][] upright = rotate(sensor, YuvConverter.getUprightRotation(rotationDegrees, true));
+    check(equal(flipped, upright), "mirror at " + rotationDegrees);
+  }
+
+  private static void checkRegion(int rotationDegrees, boolean rotateCamera, int[] region) {
+    int rotation = YuvConverter.getUprightRotation(rotationDegrees, rotateCamera);
+    int[][] sensor = sensorFrame();
+    int[][] upright = rotate(sensor, rotation);
+    int uprightWidth = upright[0].length;
+    int uprightHeight = upright.length;
+    // The regions are given for a landscape frame, transpose them for portrait.
+    int[] r = uprightWidth == WIDTH ? region : new int[] { region[1], region[0], region[3], region[2] };
+    if (r[2] > uprightWidth || r[3] > uprightHeight) {
+      return;
+    }
+
+    int[] sensorRect = YuvConverter.toSensorRect(r[0], r[1], r[2], r[3], WIDTH, HEIGHT, rotation);
+    String name = "region " + r[0] + "," + r[1] + "-" + r[2] + "," + r[3] + " at " + rotationDegrees
+        + (rotateCamera ? " with rotateCamera" : "");
+    for (int value : sensorRect) {
+      check(value % 2 == 0, name + " is not aligned");
+    }
+    check(sensorRect[0] >= 0 && sensorRect[1] >= 0 && sensorRect[2] <= WIDTH && sensorRect[3] <= HEIGHT,
+        name + " leaves the frame");
+
+    // The crop ML Kit gets, turned upright by the rotation it is handed, has to be
+    // the requested region, give or take the one pixel of alignment per side.
+    int[][] crop = rotate(cut(sensor, sensorRect[0], sensorRect[1], sensorRect[2], sensorRect[3]), rotation);
+    int[] found = find(upright, crop);
+    check(found != null, name + " does not match the upright picture");
+    int cropWidth = crop[0].length;
+    int cropHeight = crop.length;
+    check(Math.abs(found[0] - r[0]) <= 1 && Math.abs(found[1] - r[1]) <= 1
+        && Math.abs(found[0] + cropWidth - r[2]) <= 1 && Math.abs(found[1] + cropHeight - r[3]) <= 1,
+        name + " maps to " + found[0] + "," + found[1] + " size " + cropWidth + "x" + cropHeight);
+  }
+
+  private static int[][] sensorFrame() {
+    int[][] frame = new int[HEIGHT][WIDTH];
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        frame[y][x] = y * WIDTH + x;
+      }
+    }
+    return frame;
+  }
+
+  /** Rotates clockwise by a multiple of 90 degrees. */
+  private static int[][] rotate(int[][] image, int degrees) {
+    int[][] result = image;
+    for (int i = 0; i < degrees / 90; i++) {
+      int height = result.length;
+      int width = result[0].length;
+      int[][] turned = new int[width][height];
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          turned[x][height - 1 - y] = result[y][x];
+        }
+      }
+      result = turned;
+    }
+    return result;
+  }
+
+  /** Flips along both axes, like scaleX = scaleY = -1 on the preview. */
+  private static int[][] flip(int[][] image) {
+    int height = image.length;
+    int width = image[0].length;
+    int[][] flipped = new int[height][width];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        flipped[height - 1 - y][width - 1 - x] = image[y][x];
+      }
+    }
+    return flipped;
+  }
+
+  private static int[][] cut(int[][] image, int left, int top, int right, int bottom) {
+    int[][] region = new int[bottom - top][right - left];
+    for (int y = top; y < bottom; y++) {
+      System.arraycopy(image[y], left, region[y - top], 0, right - left);
+    }
+    return region;
+  }
+
+  /** Returns the position of 'part' inside 'image', null if it is not in there. */
+  private static int[] find(int[][] image, int[][] part) {
+    int first = part[0][0];
+    for (int y = 0; y < image.length; y++) {
+      for (int x = 0; x < image[0].length; x++) {
+        if (image[y][x] == first && y + part.length <= image.length && x + part[0].length <= image[0].length
+            && equal(cut(image, x, y, x + part[0].length, y + part.length), part)) {
+          return new int[] { x, y };
+        }
+      }
+    }
+    return null;
+  }
+
+  private static boolean equal(int[][] a, int[][] b) {
+    if (a.length != b.length) {
+      return false;
+    }
+    for (int i = 0; i < a.length; i++) {
+      if (!java.util.Arrays.equals(a[i], b[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+    checks++;
+  }
+}